@@ -0,0 +1,31 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+@FunctionalInterface
+public interface ContextualParserAction extends ParserAction {
+    @Override
+    ParserResult doAction(String string, ParserResult parserResult, ParseContext context);
+
+    /**
+     * Runs the action outside of a parse, with a context that has no tokens ahead.
+     */
+    @Override
+    default ParserResult doAction(String string, ParserResult parserResult) {
+        return doAction(string, parserResult, ParseContext.none());
+    }
+}
@@ -16,7 +16,10 @@
  */
 package net.remgant.tools.parser;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Stream;
@@ -70,43 +73,36 @@ public class Expression extends ParserResult {
     }
 
     private void inOrder(StringBuilder sb, Expression e) {
-        if (e.left != null)
-            inOrder(sb, e.left);
-        if (e.right != null)
-            inOrder(sb, e.right);
-        sb.append(e.value);
-        sb.append(" ");
+        for (Expression expression : e.inOrder()) {
+            sb.append(expression.value);
+            sb.append(" ");
+        }
     }
 
     private List<Token> inOrderList() {
         List<Token> list = new ArrayList<>();
-        inOrderList(list, this);
+        for (Expression expression : inOrder())
+            list.add(expression.value);
         return list;
     }
 
-    private void inOrderList(List<Token> list, Expression e) {
-        if (e.left != null)
-            inOrderList(list, e.left);
-        if (e.right != null)
-            inOrderList(list, e.right);
-        list.add(e.value);
-
-    }
-
+    // post-order, without recursion so a deep tree can't overflow the stack
     private List<Expression> inOrder() {
         List<Expression> list = new ArrayList<>();
-        inOrder(list, this);
+        Deque<Expression> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            Expression e = stack.pop();
+            list.add(e);
+            if (e.left != null)
+                stack.push(e.left);
+            if (e.right != null)
+                stack.push(e.right);
+        }
+        Collections.reverse(list);
         return list;
     }
 
-    private void inOrder(List<Expression> list, Expression e) {
-       if (e.left != null)
-           inOrder(list, e.left);
-       if (e.right != null)
-           inOrder(list, e.right);
-       list.add(e);
-    }
-
     public Stream<Token> stream() {
         return inOrderList().stream();
     }
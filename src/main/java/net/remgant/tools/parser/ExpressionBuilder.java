@@ -3,14 +3,10 @@ package net.remgant.tools.parser;
 import java.util.*;
 
 public class ExpressionBuilder<V> {
-    private Set<V> logicalOps;
-    private Set<V> relationOps;
-    private Set<V> additionOps;
-    private Set<V> multiplicationOps;
+    private final OperatorTable<V> operators;
     private V leftParen;
     private V rightParen;
     private List<V> list;
-    private Stack<Node<V>> stack;
 
     public static class Node<V> {
         V value;
@@ -30,12 +26,10 @@ public class ExpressionBuilder<V> {
         }
 
         private void printPostOrder(StringBuilder sb) {
-            if (this.left != null)
-                left.printPostOrder(sb);
-            if (this.right != null)
-                right.printPostOrder(sb);
-            sb.append(value);
-            sb.append(' ');
+            for (Node<V> node : postOrder()) {
+                sb.append(node.value);
+                sb.append(' ');
+            }
         }
 
         public V getValue() {
@@ -63,26 +57,34 @@ public class ExpressionBuilder<V> {
             return sb.toString();
         }
 
-        private void inOrder(List<Node<V>> list, Node<V> e) {
-            if (e.left != null)
-                inOrder(list, e.left);
-            if (e.right != null)
-                inOrder(list, e.right);
-            list.add(e);
+        // without recursion so a deep tree can't overflow the stack
+        private List<Node<V>> postOrder() {
+            List<Node<V>> list = new ArrayList<>();
+            Deque<Node<V>> stack = new ArrayDeque<>();
+            stack.push(this);
+            while (!stack.isEmpty()) {
+                Node<V> node = stack.pop();
+                list.add(node);
+                if (node.left != null)
+                    stack.push(node.left);
+                if (node.right != null)
+                    stack.push(node.right);
+            }
+            Collections.reverse(list);
+            return list;
         }
 
         public Iterator<Node<V>> iterator() {
-            List<Node<V>> list = new ArrayList<>();
-            inOrder(list, this);
-            return list.iterator();
+            return postOrder().iterator();
         }
     }
 
     public ExpressionBuilder(Set<V> logicalOps, Set<V> relationOps, Set<V> additionOps, Set<V> multOps, V lparen, V rparen) {
-        this.logicalOps = logicalOps;
-        this.relationOps = relationOps;
-        this.additionOps = additionOps;
-        this.multiplicationOps = multOps;
+        this(OperatorTable.of(logicalOps, relationOps, additionOps, multOps), lparen, rparen);
+    }
+
+    public ExpressionBuilder(OperatorTable<V> operators, V lparen, V rparen) {
+        this.operators = operators;
         this.leftParen = lparen;
         this.rightParen = rparen;
         this.list = new ArrayList<>();
@@ -93,108 +95,72 @@ public class ExpressionBuilder<V> {
     }
 
     public Node<V> evaluate() {
-        stack = new Stack<>();
-        expression(list.listIterator());
-        return stack.size() > 0 ? stack.pop() : null;
+        return expression(list.listIterator());
     }
 
-    private void expression(ListIterator<V> source) {
-        logicalExpression(source);
-        if (!source.hasNext())
-            return;
-        V next = source.next();
-        while (logicalOps.contains(next)) {
-            stack.push(new Node<>(next));
-            logicalExpression(source);
-            Node<V> right = stack.pop();
-            Node<V> opertor = stack.pop();
-            Node<V> left = stack.pop();
-            opertor.setLeft(left);
-            opertor.setRight(right);
-            stack.push(opertor);
-            if (!source.hasNext())
-                return;
-            next = source.next();
-        }
-        source.previous();
-    }
+    // an operator waiting for its right operand, or a ( (with a null node) waiting for its )
+    private static final class Frame<V> {
+        final Node<V> node;
+        final int minPrecedence;
 
-    private void logicalExpression(ListIterator<V> source) {
-        relateion(source);
-        if (!source.hasNext())
-            return;
-        V next = source.next();
-        while (relationOps.contains(next)) {
-            stack.push(new Node<>(next));
-            relateion(source);
-            Node<V> right = stack.pop();
-            Node<V> opertor = stack.pop();
-            Node<V> left = stack.pop();
-            opertor.setLeft(left);
-            opertor.setRight(right);
-            stack.push(opertor);
-            if (!source.hasNext())
-                return;
-            next = source.next();
+        Frame(Node<V> node, int minPrecedence) {
+            this.node = node;
+            this.minPrecedence = minPrecedence;
         }
-        source.previous();
     }
 
-    private void relateion(ListIterator<V> source) {
-        term(source);
-        if (!source.hasNext())
-            return;
-        V next = source.next();
-        while (additionOps.contains(next)) {
-            stack.push(new Node<>(next));
-            term(source);
-            Node<V> right = stack.pop();
-            Node<V> opertor = stack.pop();
-            Node<V> left = stack.pop();
-            opertor.setLeft(left);
-            opertor.setRight(right);
-            stack.push(opertor);
-            if (!source.hasNext())
-                return;
-            next = source.next();
-        }
-        source.previous();
-    }
-
-    private void term(ListIterator<V> source) {
-        factor(source);
-        if (!source.hasNext())
-            return;
-        V next = source.next();
-        while (multiplicationOps.contains(next)) {
-            stack.push(new Node<>(next));
-            factor(source);
-            Node<V> right = stack.pop();
-            Node<V> opertor = stack.pop();
-            Node<V> left = stack.pop();
-            opertor.setLeft(left);
-            opertor.setRight(right);
-            stack.push(opertor);
-            if (!source.hasNext())
-                return;
-            next = source.next();
-        }
-        source.previous();
-    }
-
-    private void factor(ListIterator<V> source) {
-        V next = source.next();
-        if (!(next.equals(leftParen) || next.equals(rightParen))) {
-            stack.push(new Node<>(next));
-            return;
-        }
-        if (next.equals(leftParen)) {
-            expression(source);
-            next = source.next();
-            if (!next.equals(rightParen))
-                throw new RuntimeException("parse error: expected ')'");
-            return;
+    /*
+     * The same precedence climbing as ExpressionParser, with an explicit stack instead of recursion.
+     */
+    private Node<V> expression(ListIterator<V> source) {
+        Deque<Frame<V>> frames = new ArrayDeque<>();
+        int minPrecedence = 0;
+        while (true) {
+            V next = source.next();
+            OperatorTable.Operator operator = operators.prefix(next);
+            if (operator != null) {
+                frames.push(new Frame<>(new Node<>(next), minPrecedence));
+                minPrecedence = operator.rightPrecedence;
+                continue;
+            }
+            if (next.equals(leftParen)) {
+                frames.push(new Frame<>(null, minPrecedence));
+                minPrecedence = 0;
+                continue;
+            }
+            if (next.equals(rightParen))
+                throw new RuntimeException("parse error");
+            Node<V> left = new Node<>(next);
+            while (true) {
+                operator = null;
+                if (source.hasNext()) {
+                    next = source.next();
+                    operator = operators.binary(next);
+                    if (operator == null || operator.precedence < minPrecedence) {
+                        source.previous();
+                        operator = null;
+                    }
+                }
+                if (operator != null) {
+                    Node<V> node = new Node<>(next);
+                    node.setLeft(left);
+                    frames.push(new Frame<>(node, minPrecedence));
+                    minPrecedence = operator.rightPrecedence;
+                    break;
+                }
+                if (frames.isEmpty())
+                    return left;
+                Frame<V> frame = frames.pop();
+                minPrecedence = frame.minPrecedence;
+                if (frame.node == null) {
+                    next = source.next();
+                    if (!next.equals(rightParen))
+                        throw new RuntimeException("parse error: expected ')'");
+                } else {
+                    frame.node.setRight(left);
+                    left = frame.node;
+                }
+            }
         }
-        throw new RuntimeException("parse error");
     }
 }
@@ -16,168 +16,281 @@
  */
 package net.remgant.tools.parser;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.PeekingIterator;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class ExpressionParser {
 
-    Stack<Expression> expressionStack;
-    private Set<Predicate<Token>> endTokens;
-    private Set<String> logicalOps;
-    private Set<String> relationOps;
-    private Set<String> additionOps;
-    private Set<String> multiplicationOps;
+    private static final int MAX_END_TOKEN_SETS = 64;
+
+    private final OperatorTable<String> operators;
+    private volatile ExpressionParserMetrics metrics;
+    // compiled end token sets, by the sets they were compiled from
+    private final Map<Set<Predicate<Token>>, TokenMatcher> endTokenMatchers = new ConcurrentHashMap<>();
 
     public ExpressionParser(Set<String> logicalOps, Set<String> relationOps, Set<String> additionOps, Set<String> multiplicationOps) {
-        this.logicalOps = logicalOps;
-        this.relationOps = relationOps;
-        this.additionOps = additionOps;
-        this.multiplicationOps = multiplicationOps;
+        this(OperatorTable.of(logicalOps, relationOps, additionOps, multiplicationOps));
     }
 
-    public ParserResult parse(ListIterator<Token> source, Set<Predicate<Token>> endTokens) throws Exception {
-        this.endTokens = endTokens;
-        expressionStack = new Stack<>();
-        expression(source);
-        if (expressionStack.empty())
-            return new Expression();
-        return expressionStack.pop();
+    /**
+     * An expression parser for any number of levels of operators, looked up by token value.
+     */
+    public ExpressionParser(OperatorTable<String> operators) {
+        this.operators = operators;
     }
 
-    public ParserResult parse(ListIterator<Token> source, Set<Token> endTokens, String s) throws Exception {
-          this.endTokens = endTokens.stream().map(t -> t.getPredicate()).collect(Collectors.toSet());
-          expressionStack = new Stack<>();
-          expression(source);
-          if (expressionStack.empty())
-              return new Expression();
-          return expressionStack.pop();
-      }
+    // the state of one call to parse, so a single ExpressionParser can be shared between threads
+    private static class Context {
+        final PeekingIterator<Token> source;
+        final TokenMatcher endTokens;
+        int consumed;
+
+        Context(PeekingIterator<Token> source, TokenMatcher endTokens) {
+            this.source = source;
+            this.endTokens = endTokens;
+        }
 
-    private boolean match(Token token) {
-        return endTokens.stream().anyMatch(p -> p.test(token));
+        boolean match(Token token) {
+            return endTokens.test(token);
+        }
+
+        Token next() {
+            Token token = source.next();
+            consumed++;
+            return token;
+        }
     }
 
-    private void expression(ListIterator<Token> source) {
-        logicalExpression(source);
-        if (!source.hasNext())
-            return;
-        Token next = source.next();
-        if (match(next)) {
-            source.previous();
-            return;
-        }
-        while (logicalOps.contains(next.getValue())) {
-            expressionStack.push(new Expression(next));
-            logicalExpression(source);
-            Expression right = expressionStack.pop();
-            Expression opertor = expressionStack.pop();
-            Expression left = expressionStack.pop();
-            opertor.setLeft(left);
-            opertor.setRight(right);
-            expressionStack.push(opertor);
-            if (!source.hasNext())
-                return;
-            next = source.next();
-        }
-        source.previous();
-    }
-
-    private void logicalExpression(ListIterator<Token> source) {
-        relateion(source);
-        if (!source.hasNext())
-            return;
-        Token next = source.next();
-        if (match(next)) {
-            source.previous();
-            return;
-        }
-        while (relationOps.contains(next.getValue())) {
-            expressionStack.push(new Expression(next));
-            relateion(source);
-            Expression right = expressionStack.pop();
-            Expression opertor = expressionStack.pop();
-            Expression left = expressionStack.pop();
-            opertor.setLeft(left);
-            opertor.setRight(right);
-            expressionStack.push(opertor);
-            if (!source.hasNext())
-                return;
-            next = source.next();
-        }
-        source.previous();
-    }
-
-    private void relateion(ListIterator<Token> source) {
-        term(source);
-        if (!source.hasNext())
-            return;
-        Token next = source.next();
-        if (match(next)) {
-            source.previous();
-            return;
-        }
-        while (additionOps.contains(next.getValue())) {
-            expressionStack.push(new Expression(next));
-            term(source);
-            Expression right = expressionStack.pop();
-            Expression opertor = expressionStack.pop();
-            Expression left = expressionStack.pop();
-            opertor.setLeft(left);
-            opertor.setRight(right);
-            expressionStack.push(opertor);
-            if (!source.hasNext())
-                return;
-            next = source.next();
-        }
-        source.previous();
-    }
-
-    private void term(ListIterator<Token> source) {
-        factor(source);
-        if (!source.hasNext())
-            return;
-        Token next = source.next();
-        if (match(next)) {
+    // a ListIterator read through peek and next only, leaving it just after the last token consumed
+    private static final class ListIteratorPeeking implements PeekingIterator<Token> {
+        private final ListIterator<Token> source;
+
+        ListIteratorPeeking(ListIterator<Token> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return source.hasNext();
+        }
+
+        @Override
+        public Token peek() {
+            Token token = source.next();
             source.previous();
-            return;
+            return token;
+        }
+
+        @Override
+        public Token next() {
+            return source.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    // a TokenSource read through its own peek, failing the way a PeekingIterator does at the end
+    private static final class TokenSourcePeeking implements PeekingIterator<Token> {
+        private final TokenSource source;
+
+        TokenSourcePeeking(TokenSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return source.hasNext();
+        }
+
+        @Override
+        public Token peek() {
+            Token token = source.peek();
+            if (token == null)
+                throw new NoSuchElementException();
+            return token;
         }
-        while (multiplicationOps.contains(next.getValue())) {
-            expressionStack.push(new Expression(next));
-            factor(source);
-            Expression right = expressionStack.pop();
-            Expression opertor = expressionStack.pop();
-            Expression left = expressionStack.pop();
-            opertor.setLeft(left);
-            opertor.setRight(right);
-            expressionStack.push(opertor);
-            if (!source.hasNext())
-                return;
-            next = source.next();
+
+        @Override
+        public Token next() {
+            return source.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    public OperatorTable<String> getOperators() {
+        return operators;
+    }
+
+    public void setMetrics(ExpressionParserMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public ExpressionParserMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Parses an expression, leaving {@code source} positioned at the token after it, which is
+     * either an end token or a token that can't continue the expression. Only the one token
+     * window {@link ListIterator#previous()} has to allow is used, and a {@link TokenSource} is only
+     * read forward.
+     */
+    public ParserResult parse(ListIterator<Token> source, Set<Predicate<Token>> endTokens) throws Exception {
+        if (source instanceof TokenSource)
+            return parse((TokenSource) source, endTokens);
+        return parse(new ListIteratorPeeking(source), endTokens);
+    }
+
+    /**
+     * Parses an expression from a lexer's token source, peeking at the token after it rather than
+     * reading it and pushing it back.
+     */
+    public ParserResult parse(TokenSource source, Set<Predicate<Token>> endTokens) throws Exception {
+        return parse(new TokenSourcePeeking(source), endTokens);
+    }
+
+    /**
+     * Parses an expression from a forward only source, such as
+     * {@code Iterators.peekingIterator(iterator)}, leaving the token after it to be peeked at.
+     */
+    public ParserResult parse(PeekingIterator<Token> source, Set<Predicate<Token>> endTokens) throws Exception {
+        Context context = new Context(source, compile(endTokens));
+        ExpressionParserMetrics metrics = this.metrics;
+        if (metrics == null)
+            return parse(context);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            ParserResult result = parse(context);
+            failed = false;
+            return result;
+        } finally {
+            metrics.parseFinished(context.consumed, System.nanoTime() - start, failed);
         }
-        source.previous();
     }
 
-    private void factor(ListIterator<Token> soruce) {
-        Token next = soruce.next();
-        if (match(next)) {
-            soruce.previous();
-            return;
+    /*
+     * End token sets are usually the same few constants, so each is compiled once, up to a limit.
+     */
+    private TokenMatcher compile(Set<Predicate<Token>> endTokens) {
+        TokenMatcher matcher = endTokenMatchers.get(endTokens);
+        if (matcher == null) {
+            matcher = TokenMatcher.of(endTokens);
+            if (endTokenMatchers.size() < MAX_END_TOKEN_SETS)
+                endTokenMatchers.put(ImmutableSet.copyOf(endTokens), matcher);
         }
-        if (!(next.getValue().equals("(") || next.getValue().equals(")"))) {
-            expressionStack.push(new Expression(next));
-            return;
+        return matcher;
+    }
+
+    private ParserResult parse(Context context) {
+        Expression expression = expression(context);
+        return expression == null ? new Expression() : expression;
+    }
+
+    public ParserResult parse(TokenBuffer source, Set<Predicate<Token>> endTokens) throws Exception {
+        return parse(source.listIterator(), endTokens);
+    }
+
+    public ParserResult parse(ListIterator<Token> source, Set<Token> endTokens, String s) throws Exception {
+          return parse(source, endTokens.stream().map(t -> t.getPredicate()).collect(Collectors.toSet()));
+      }
+
+    // an operator waiting for its right operand, or a ( (with a null node) waiting for its )
+    private static final class Frame {
+        final Expression node;
+        // of the expression the frame is part of, to go back to once it's complete
+        final int minPrecedence;
+
+        Frame(Expression node, int minPrecedence) {
+            this.node = node;
+            this.minPrecedence = minPrecedence;
         }
-        if (next.getValue().equals("(")) {
-            expression(soruce);
-            next = soruce.next();
-            if (!next.getValue().equals(")"))
-                throw new RuntimeException("parse error: expected ')'");
-            return;
+    }
+
+    /*
+     * Precedence climbing: an operand, then each binary operator that binds at least as tightly as
+     * the expression's minimum precedence along with its right operand. Operators waiting for an
+     * operand and parentheses waiting to be closed are kept on a stack on the heap rather than in
+     * recursive calls, so deeply nested input can't overflow the thread's stack. Null if the
+     * expression ends before it starts.
+     */
+    private Expression expression(Context context) {
+        PeekingIterator<Token> source = context.source;
+        Deque<Frame> frames = new ArrayDeque<>();
+        int minPrecedence = 0;
+        while (true) {
+            Expression left = null;
+            Token next = source.peek();
+            if (!context.match(next)) {
+                context.next();
+                OperatorTable.Operator operator = operators.prefix(next.getValue());
+                if (operator != null) {
+                    frames.push(new Frame(new Expression(next), minPrecedence));
+                    minPrecedence = operator.rightPrecedence;
+                    continue;
+                }
+                if (next.getValue().equals("(")) {
+                    // when ) is an end token, () is an empty expression
+                    frames.push(new Frame(null, minPrecedence));
+                    minPrecedence = 0;
+                    continue;
+                }
+                if (next.getValue().equals(")"))
+                    throw new RuntimeException("parse error");
+                left = new Expression(next);
+            }
+            while (true) {
+                OperatorTable.Operator operator = null;
+                if (source.hasNext()) {
+                    next = source.peek();
+                    operator = context.match(next) ? null : operators.binary(next.getValue());
+                    if (operator != null && operator.precedence < minPrecedence)
+                        operator = null;
+                }
+                if (operator != null) {
+                    context.next();
+                    Expression expression = new Expression(next);
+                    expression.setLeft(requireOperand(left));
+                    frames.push(new Frame(expression, minPrecedence));
+                    minPrecedence = operator.rightPrecedence;
+                    break;
+                }
+                if (frames.isEmpty())
+                    return left;
+                Frame frame = frames.pop();
+                minPrecedence = frame.minPrecedence;
+                if (frame.node == null) {
+                    next = context.next();
+                    if (!next.getValue().equals(")"))
+                        throw new RuntimeException("parse error: expected ')'");
+                } else {
+                    frame.node.setRight(requireOperand(left));
+                    left = frame.node;
+                }
+            }
         }
-        throw new RuntimeException("parse error");
     }
 
+    private static Expression requireOperand(Expression expression) {
+        if (expression == null)
+            throw new RuntimeException("parse error: expected an operand");
+        return expression;
+    }
 }
@@ -0,0 +1,78 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what an {@link ExpressionParser} does: the expressions it parses, the ones that fail,
+ * how many tokens each one reads and how long each takes. Install one with
+ * {@link ExpressionParser#setMetrics(ExpressionParserMetrics)}.
+ */
+public final class ExpressionParserMetrics {
+    private final LongAdder failures = new LongAdder();
+    private final Histogram tokensPerParse = new Histogram();
+    private final Histogram parseLatency = new Histogram();
+
+    void parseFinished(int tokens, long nanos, boolean failed) {
+        if (failed)
+            failures.increment();
+        tokensPerParse.record(tokens);
+        parseLatency.record(nanos);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(failures.sum(), tokensPerParse.snapshot(), parseLatency.snapshot());
+    }
+
+    public static final class Snapshot {
+        private final long failures;
+        private final Histogram.Snapshot tokensPerParse;
+        private final Histogram.Snapshot parseLatency;
+
+        Snapshot(long failures, Histogram.Snapshot tokensPerParse, Histogram.Snapshot parseLatency) {
+            this.failures = failures;
+            this.tokensPerParse = tokensPerParse;
+            this.parseLatency = parseLatency;
+        }
+
+        public long getParses() {
+            return parseLatency.getCount();
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public Histogram.Snapshot getTokensPerParse() {
+            return tokensPerParse;
+        }
+
+        /**
+         * @return nanoseconds for each parse, including any lexing done by a lazy token source
+         */
+        public Histogram.Snapshot getParseLatency() {
+            return parseLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "ExpressionParserMetrics{parses=" + getParses() + ", failures=" + failures + ", tokensPerParse=" +
+                    tokensPerParse + ", parseLatency=" + parseLatency + '}';
+        }
+    }
+}
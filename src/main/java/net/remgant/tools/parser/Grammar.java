@@ -0,0 +1,75 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of everything a {@link Parser} needs to run: its states, terminal states,
+ * lexer and compiled transition table. Nothing in it changes during a parse, so one grammar can
+ * be used by any number of threads at once; per parse state lives in a {@link ParseContext}.
+ */
+final class Grammar {
+    final List<List<Parser.State>> states;
+    final Set<Integer> terminalStates;
+    final Lexer lexer;
+    final TransitionTable table;
+    // what the grammar was built from, to tell when the parser's fields have been changed
+    final Set<Integer> terminalStatesSource;
+    private final BitSet terminal = new BitSet();
+
+    Grammar(List<List<Parser.State>> stateList, Set<Integer> terminalStates, Lexer lexer) {
+        List<List<Parser.State>> states = new ArrayList<>(stateList.size());
+        for (List<Parser.State> list : stateList)
+            states.add(list == null ? null : Collections.unmodifiableList(new ArrayList<>(list)));
+        this.states = Collections.unmodifiableList(states);
+        this.terminalStates = ImmutableSet.copyOf(terminalStates);
+        this.terminalStatesSource = terminalStates;
+        for (int state : this.terminalStates)
+            if (state >= 0)
+                terminal.set(state);
+        this.lexer = lexer;
+        this.table = new TransitionTable(this.states, lexer.getTokenFinder());
+    }
+
+    boolean isTerminal(int state) {
+        return state >= 0 ? terminal.get(state) : terminalStates.contains(state);
+    }
+
+    /**
+     * @return the index of the transition {@code token} takes in {@code state}, or
+     * {@link TransitionTable#NO_MATCH}
+     */
+    int transition(int state, Token token) {
+        List<Parser.State> list = state < states.size() ? states.get(state) : null;
+        if (list == null)
+            return TransitionTable.NO_MATCH;
+        int r = table.lookup(state, token);
+        if (r >= TransitionTable.NO_MATCH)
+            return r;
+        for (int i : table.scan(r).order())
+            if (list.get(i).test(token))
+                return i;
+        return TransitionTable.NO_MATCH;
+    }
+}
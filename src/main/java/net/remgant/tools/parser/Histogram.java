@@ -0,0 +1,117 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of non negative values in power of two buckets: bucket 0 counts zeros
+ * and bucket {@code i} counts values from {@code 2^(i-1)} to {@code 2^i - 1}. Recording a value
+ * only increments striped counters, so threads recording at once don't contend.
+ */
+public final class Histogram {
+    static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+        sum.add(value);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, sum.sum());
+    }
+
+    /**
+     * The counts of a histogram at one point in time. Counts recorded while the snapshot was
+     * being taken may or may not be in it.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        Snapshot(long[] counts, long count, long sum) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        public int getBucketCount() {
+            return counts.length;
+        }
+
+        public long getCount(int bucket) {
+            return counts[bucket];
+        }
+
+        /**
+         * @return the largest value counted in {@code bucket}
+         */
+        public static long getUpperBound(int bucket) {
+            return (1L << bucket) - 1;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @return the upper bound of the bucket the given fraction of values are at or below, or 0
+         * if nothing has been recorded
+         */
+        public long getPercentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0)
+                    return getUpperBound(i);
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Histogram{count=" + count + ", mean=" + getMean() + ", p50=" + getPercentile(0.5) +
+                    ", p99=" + getPercentile(0.99) + '}';
+        }
+    }
+}
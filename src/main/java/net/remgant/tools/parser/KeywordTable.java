@@ -0,0 +1,125 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The keywords of a grammar, or any other strings matched ignoring case, in a hash table that is
+ * looked up by the characters of a lexeme,
+ * folded one at a time, so no folded copy of the lexeme is made. Characters fold to the lower case
+ * of their upper case, which makes two strings equal when folded exactly when
+ * {@link String#equalsIgnoreCase} says they are. The hash seed
+ * is chosen when the table is built so that no two keywords share a slot, and a lookup takes a
+ * single probe; probing carries on past the first slot only if no such seed was found.
+ */
+final class KeywordTable<T> {
+    private static final int SEED_ATTEMPTS = 64;
+
+    private final String[] keys;
+    private final Object[] tokens;
+    private final int mask;
+    private final int seed;
+
+    /*
+     * keywords goes from the keyword, in any case, to what it's looked up for, such as its
+     * canonical token.
+     */
+    KeywordTable(Map<String, T> keywords) {
+        Map<String, T> folded = new HashMap<>();
+        for (Map.Entry<String, T> e : keywords.entrySet())
+            folded.putIfAbsent(fold(e.getKey()), e.getValue());
+        keywords = folded;
+        int size = Integer.highestOneBit(Math.max(keywords.size(), 1) * 2 - 1) << 1;
+        int seed = 0;
+        for (int attempt = 0; ; attempt++) {
+            seed = 31 + 2 * attempt;
+            if (perfect(keywords, size, seed))
+                break;
+            if (attempt % SEED_ATTEMPTS == SEED_ATTEMPTS - 1) {
+                if (size >= 16 * keywords.size())
+                    break;
+                size <<= 1;
+            }
+        }
+        this.keys = new String[size];
+        this.tokens = new Object[size];
+        this.mask = size - 1;
+        this.seed = seed;
+        for (Map.Entry<String, T> e : keywords.entrySet()) {
+            String key = e.getKey();
+            int i = hash(key, 0, key.length(), seed) & mask;
+            while (keys[i] != null)
+                i = (i + 1) & mask;
+            keys[i] = key;
+            tokens[i] = e.getValue();
+        }
+    }
+
+    private static boolean perfect(Map<String, ?> keywords, int size, int seed) {
+        boolean[] used = new boolean[size];
+        for (String key : keywords.keySet()) {
+            int i = hash(key, 0, key.length(), seed) & (size - 1);
+            if (used[i])
+                return false;
+            used[i] = true;
+        }
+        return true;
+    }
+
+    /*
+     * What the keyword the characters start to end of s are, ignoring case, is looked up for, or
+     * null if they aren't one.
+     */
+    T get(CharSequence s, int start, int end) {
+        for (int i = hash(s, start, end, seed) & mask; keys[i] != null; i = (i + 1) & mask)
+            if (matches(keys[i], s, start, end)) {
+                @SuppressWarnings("unchecked")
+                T t = (T) tokens[i];
+                return t;
+            }
+        return null;
+    }
+
+    private static int hash(CharSequence s, int start, int end, int seed) {
+        int h = 0;
+        for (int i = start; i < end; i++)
+            h = h * seed + fold(s.charAt(i));
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String key, CharSequence s, int start, int end) {
+        if (key.length() != end - start)
+            return false;
+        for (int i = start; i < end; i++)
+            if (fold(s.charAt(i)) != key.charAt(i - start))
+                return false;
+        return true;
+    }
+
+    private static String fold(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = fold(chars[i]);
+        return new String(chars);
+    }
+
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
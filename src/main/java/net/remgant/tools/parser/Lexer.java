@@ -21,14 +21,23 @@ import com.google.common.collect.ImmutableSet;
 
 import java.io.IOException;
 import java.io.PushbackReader;
-import java.io.StringReader;
+import java.io.Reader;
 import java.io.UncheckedIOException;
 import java.util.ListIterator;
 import java.util.Set;
 
 public class Lexer {
+    private static final byte WHITESPACE = 1;
+    private static final byte DIGIT = 2;
+    private static final byte SPECIAL = 4;
+    private static final byte OPERATOR = 8;
+
     private final Set<Character> specialChars;
     private final Token.TokenFinder tokenFinder;
+    // null unless the lexer splits out operators
+    private final OperatorTrie operators;
+    private final byte[] asciiCharClasses = new byte[128];
+    private volatile LexerMetrics metrics;
 
     public final static Set<Character> defaultSpecialChars = ImmutableSet.of(',', '.', '(', ')', '?', '{', '}');
 
@@ -45,107 +54,417 @@ public class Lexer {
     }
 
     public Lexer(Set<Character> specialChars, Token.TokenFinder tokenFinder) {
+        this(specialChars, null, tokenFinder);
+    }
+
+    /**
+     * A lexer that also splits the longest operator it finds out of the source, whether or not
+     * there's whitespace around it, from {@code operators} and the finder's operator tokens. Only
+     * operators made up of symbols are split out; word operators are still whole lexemes.
+     */
+    public Lexer(Set<Character> specialChars, Set<String> operators, Token.TokenFinder tokenFinder) {
         this.specialChars = specialChars;
         this.tokenFinder = tokenFinder;
+        this.operators = operators == null ? null :
+                new OperatorTrie(ImmutableSet.<String>builder().addAll(operators).addAll(tokenFinder.operatorSet).build());
+        for (char c = 0; c < asciiCharClasses.length; c++)
+            asciiCharClasses[c] = charClass(c);
+    }
+
+    /**
+     * Counts the tokens read by every later token source, or stops counting if {@code metrics} is
+     * null. A parser's lexer may be shared with other instances of the same parser class.
+     */
+    public void setMetrics(LexerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public LexerMetrics getMetrics() {
+        return metrics;
+    }
+
+    Token.TokenFinder getTokenFinder() {
+        return tokenFinder;
+    }
+
+    private byte charClass(char c) {
+        byte charClass = 0;
+        if (Character.isWhitespace(c))
+            charClass |= WHITESPACE;
+        if (Character.isDigit(c))
+            charClass |= DIGIT;
+        if (specialChars.contains(c))
+            charClass |= SPECIAL;
+        if (operators != null && operators.startsWith(c))
+            charClass |= OPERATOR;
+        return charClass;
     }
 
     public ListIterator<Token> tokenize(final String source) {
+        return ImmutableList.copyOf(tokenSource(source)).listIterator();
+    }
+
+    /**
+     * The tokens read from the returned source are spans of {@code source} until their values are
+     * asked for, so it must not change while they are in use.
+     */
+    public TokenSource tokenSource(CharSequence source) {
+        return withMetrics(new CharSequenceTokenSource(source));
+    }
+
+    /**
+     * @return the tokens of {@code source}, lexed all at once into primitive columns
+     */
+    public TokenBuffer tokenBuffer(CharSequence source) {
+        TokenBuffer buffer = new TokenBuffer(source, tokenFinder);
+        CharSequenceTokenSource lexemes = new CharSequenceTokenSource(source);
+        LexerMetrics metrics = this.metrics;
+        if (metrics == null) {
+            while (lexemes.advance())
+                buffer.add(lexemes.lexemeState, lexemes.lexemeStart, lexemes.lexemeEnd);
+            return buffer;
+        }
+        long lexNanos = 0;
+        for (long start = System.nanoTime(); lexemes.advance(); start = System.nanoTime()) {
+            buffer.add(lexemes.lexemeState, lexemes.lexemeStart, lexemes.lexemeEnd);
+            long nanos = System.nanoTime() - start;
+            lexNanos += nanos;
+            metrics.tokenRead(nanos);
+        }
+        metrics.sourceFinished(lexNanos);
+        return buffer;
+    }
+
+    CharSequenceTokenSource charSequenceTokenSource(CharSequence source) {
+        return new CharSequenceTokenSource(source);
+    }
+
+    public TokenSource tokenSource(Reader source) {
+        return withMetrics(new ReaderTokenSource(source));
+    }
+
+    private TokenSource withMetrics(TokenSource tokenSource) {
+        tokenSource.metrics = metrics;
+        return tokenSource;
+    }
+
+    public ListIterator<Token> tokenize(Iterable<String> strings) {
         ImmutableList.Builder<Token> builder = ImmutableList.builder();
-        boolean inSingleQuote = false;
-        boolean inDoubleQuote = false;
-        boolean inNumber = false;
-        StringBuilder sb = new StringBuilder();
-        try (PushbackReader in = new PushbackReader(new StringReader(source))) {
-            int i;
-            while ((i = in.read()) != -1) {
-                char c = (char) i;
-                if (!inSingleQuote && !inDoubleQuote && !inNumber && Character.isWhitespace(c)) {
-                    if (sb.length() > 0) {
-                        builder.add(tokenFinder.findToken(sb.toString()));
-                        sb.setLength(0);
+        strings.forEach(s -> builder.add(tokenFinder.findToken(s)));
+        return builder.build().listIterator();
+    }
+
+    private class ReaderTokenSource extends TokenSource {
+        private final PushbackReader in;
+        private final StringBuilder sb = new StringBuilder();
+        private boolean inSingleQuote = false;
+        private boolean inDoubleQuote = false;
+        private boolean inNumber = false;
+        private int pos;
+        private int tokenStart;
+
+        ReaderTokenSource(Reader source) {
+            this.in = new PushbackReader(source, operators == null ? 1 : Math.max(1, operators.maxLength()));
+        }
+
+        @Override
+        protected Token readToken() {
+            try {
+                int i;
+                while ((i = read()) != -1) {
+                    char c = (char) i;
+                    if (!inSingleQuote && !inDoubleQuote && !inNumber && Character.isWhitespace(c)) {
+                        if (sb.length() > 0)
+                            return emit();
+                        continue;
+                    }
+                    if (c == '\'' && !inSingleQuote && !inDoubleQuote) {
+                        inSingleQuote = true;
+                        append(c);
+                        continue;
+                    }
+                    if (c == '\'' && inSingleQuote) {
+                        append(c);
+                        inSingleQuote = false;
+                        return emit();
+                    }
+                    if (inSingleQuote && c == '\\') {
+                        append(c);
+                        i = read();
+                        sb.append((char) i);
+                        continue;
+                    }
+                    if (inSingleQuote) {
+                        append(c);
+                        continue;
+                    }
+                    if (inDoubleQuote && c == '\\') {
+                        append(c);
+                        i = read();
+                        sb.append((char) i);
+                        continue;
+                    }
+                    if (c == '\"' && !inDoubleQuote) {
+                        append(c);
+                        inDoubleQuote = true;
+                        continue;
+                    }
+                    if (c == '\"') {
+                        append(c);
+                        inDoubleQuote = false;
+                        return emit();
+                    }
+                    if (!inNumber && Character.isDigit(c)) {
+                        if (sb.length() > 0) {
+                            unread(c);
+                            return emit();
+                        }
+                        inNumber = true;
+                        append(c);
+                        continue;
+                    }
+                    if (inNumber && c == '.') {
+                        append(c);
+                        continue;
+                    }
+                    if (inNumber && !Character.isDigit(c) && c != '.') {
+                        inNumber = false;
+                        unread(c);
+                        if (sb.length() > 0)
+                            return emit();
+                        continue;
+                    }
+                    if (operators != null && !inDoubleQuote && operators.startsWith(c)) {
+                        int length = operatorLength(c);
+                        if (length > 0) {
+                            if (sb.length() > 0) {
+                                unread(c);
+                                return emit();
+                            }
+                            append(c);
+                            for (int j = 1; j < length; j++)
+                                append((char) read());
+                            return emit();
+                        }
                     }
+                    if (specialChars.contains(c)) {
+                        if (sb.length() > 0) {
+                            unread(c);
+                            return emit();
+                        }
+                        readOffset = pos - 1;
+                        return tokenFinder.findToken(Character.toString(c));
+                    }
+                    append(c);
+                }
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+            if (sb.length() > 0)
+                return emit();
+            return null;
+        }
+
+        private int read() throws IOException {
+            int i = in.read();
+            if (i != -1)
+                pos++;
+            return i;
+        }
+
+        private void unread(char c) throws IOException {
+            in.unread(c);
+            pos--;
+        }
+
+        /*
+         * The length of the longest operator starting with c, reading ahead as far as it takes and
+         * then unreading all but c.
+         */
+        private int operatorLength(char c) throws IOException {
+            OperatorTrie node = operators.child(c);
+            int length = node.isTerminal() ? 1 : 0;
+            char[] lookahead = new char[operators.maxLength()];
+            int n = 1;
+            while (n < lookahead.length) {
+                int i = read();
+                if (i == -1)
+                    break;
+                lookahead[n++] = (char) i;
+                node = node.child((char) i);
+                if (node == null)
+                    break;
+                if (node.isTerminal())
+                    length = n;
+            }
+            for (int j = n - 1; j >= 1; j--)
+                unread(lookahead[j]);
+            return length;
+        }
+
+        private void append(char c) {
+            if (sb.length() == 0)
+                tokenStart = pos - 1;
+            sb.append(c);
+        }
+
+        private Token emit() {
+            readOffset = tokenStart;
+            Token token = tokenFinder.findToken(sb.toString());
+            sb.setLength(0);
+            return token;
+        }
+    }
+
+    /*
+     * Same state machine as ReaderTokenSource, but it indexes the source directly and looks up
+     * ASCII characters in a precomputed class table. A lexeme is always a contiguous range of the
+     * source, so it is tracked by its start offset instead of being copied into a buffer, and the
+     * token finder's automaton is stepped as each character is added so the lexeme is already
+     * classified when it ends.
+     */
+    class CharSequenceTokenSource extends TokenSource {
+        private final CharSequence source;
+        private final int length;
+        private final LexicalAutomaton automaton = tokenFinder.automaton;
+        private int pos;
+        private int start = -1;
+        private int lexicalState = LexicalAutomaton.START;
+        private boolean inSingleQuote = false;
+        private boolean inDoubleQuote = false;
+        private boolean inNumber = false;
+        // the lexeme found by the last call to advance()
+        private int lexemeStart;
+        private int lexemeEnd;
+        private int lexemeState;
+
+        CharSequenceTokenSource(CharSequence source) {
+            this.source = source;
+            this.length = source.length();
+        }
+
+        @Override
+        protected Token readToken() {
+            if (!advance())
+                return null;
+            readOffset = lexemeStart;
+            return token();
+        }
+
+        /**
+         * Finds the next lexeme without making a token of it.
+         *
+         * @return false at the end of the source
+         */
+        boolean advance() {
+            while (pos < length) {
+                char c = source.charAt(pos++);
+                byte charClass = c < 128 ? asciiCharClasses[c] : charClass(c);
+                if (!inSingleQuote && !inDoubleQuote && !inNumber && (charClass & WHITESPACE) != 0) {
+                    if (start >= 0)
+                        return lexeme(pos - 1);
                     continue;
                 }
                 if (c == '\'' && !inSingleQuote && !inDoubleQuote) {
                     inSingleQuote = true;
-                    sb.append(c);
+                    append();
                     continue;
                 }
                 if (c == '\'' && inSingleQuote) {
-                    sb.append(c);
-                    builder.add(tokenFinder.findToken(sb.toString()));
-                    sb.setLength(0);
                     inSingleQuote = false;
-                    continue;
+                    append();
+                    return lexeme(pos);
                 }
-                if (inSingleQuote && c == '\\') {
-                    sb.append(c);
-                    i = in.read();
-                    sb.append((char) i);
+                if ((inSingleQuote || inDoubleQuote) && c == '\\') {
+                    append();
+                    if (pos < length) {
+                        pos++;
+                        append();
+                    }
                     continue;
                 }
                 if (inSingleQuote) {
-                    sb.append(c);
-                    continue;
-                }
-                if (inDoubleQuote && c == '\\') {
-                    sb.append(c);
-                    i = in.read();
-                    sb.append((char) i);
+                    append();
                     continue;
                 }
                 if (c == '\"' && !inDoubleQuote) {
-                    sb.append(c);
                     inDoubleQuote = true;
+                    append();
                     continue;
                 }
                 if (c == '\"') {
-                    sb.append(c);
-                    builder.add(tokenFinder.findToken(sb.toString()));
-                    sb.setLength(0);
                     inDoubleQuote = false;
-                    continue;
+                    append();
+                    return lexeme(pos);
                 }
-                if (!inNumber && Character.isDigit(c)) {
-                    if (sb.length() > 0)
-                        builder.add(tokenFinder.findToken(sb.toString()));
+                if (!inNumber && (charClass & DIGIT) != 0) {
+                    if (start >= 0)
+                        return lexeme(--pos);
                     inNumber = true;
-                    sb.setLength(0);
-                    sb.append(c);
+                    append();
                     continue;
                 }
                 if (inNumber && c == '.') {
-                    sb.append(c);
+                    append();
                     continue;
                 }
-                if (inNumber && !Character.isDigit(c) && c != '.') {
-                    builder.add(tokenFinder.findToken(sb.toString()));
-                    sb.setLength(0);
+                if (inNumber && (charClass & DIGIT) == 0) {
                     inNumber = false;
-                    in.unread(c);
+                    if (start >= 0)
+                        return lexeme(--pos);
+                    --pos;
                     continue;
                 }
-                if (specialChars.contains(c)) {
-                    if (sb.length() > 0)
-                        builder.add(tokenFinder.findToken(sb.toString()));
-                    builder.add(tokenFinder.findToken(Character.toString(c)));
-                    sb.setLength(0);
-                    continue;
+                if ((charClass & OPERATOR) != 0 && !inDoubleQuote) {
+                    int operatorLength = operators.match(source, pos - 1, length);
+                    if (operatorLength > 0) {
+                        if (start >= 0)
+                            return lexeme(--pos);
+                        start = --pos;
+                        for (int end = start + operatorLength; pos < end; pos++)
+                            lexicalState = automaton.next(lexicalState, source.charAt(pos));
+                        return lexeme(pos);
+                    }
                 }
-                sb.append(c);
-
+                if ((charClass & SPECIAL) != 0) {
+                    if (start >= 0)
+                        return lexeme(--pos);
+                    start = pos - 1;
+                    lexicalState = automaton.next(LexicalAutomaton.START, c);
+                    return lexeme(pos);
+                }
+                append();
             }
-        } catch (IOException ioe) {
-            throw new UncheckedIOException(ioe);
+            if (start >= 0)
+                return lexeme(length);
+            return false;
         }
-        if (sb.length() > 0)
-            builder.add(tokenFinder.findToken(sb.toString()));
-        return builder.build().listIterator();
-    }
 
-    public ListIterator<Token> tokenize(Iterable<String> strings) {
-        ImmutableList.Builder<Token> builder = ImmutableList.builder();
-        strings.forEach(s -> builder.add(tokenFinder.findToken(s)));
-        return builder.build().listIterator();
+        /**
+         * @return the kind of the current lexeme, Token.UNKNOWN_KIND if it takes more than the
+         * automaton to tell
+         */
+        int kind() {
+            return automaton.kind(lexemeState);
+        }
+
+        Token token() {
+            return tokenFinder.findToken(lexemeState, source, lexemeStart, lexemeEnd);
+        }
+
+        private void append() {
+            if (start < 0)
+                start = pos - 1;
+            lexicalState = automaton.next(lexicalState, source.charAt(pos - 1));
+        }
+
+        private boolean lexeme(int end) {
+            lexemeStart = start;
+            lexemeEnd = end;
+            lexemeState = lexicalState;
+            start = -1;
+            lexicalState = LexicalAutomaton.START;
+            return true;
+        }
     }
 }
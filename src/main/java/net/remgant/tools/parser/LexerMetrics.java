@@ -0,0 +1,90 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what a {@link Lexer} does: the tokens it reads, how long each one takes to read and how
+ * long it takes to read a whole source. Install one with {@link Lexer#setMetrics(LexerMetrics)};
+ * one instance can be shared by several lexers.
+ */
+public final class LexerMetrics {
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder sources = new LongAdder();
+    private final Histogram tokenLatency = new Histogram();
+    private final Histogram sourceLatency = new Histogram();
+
+    void tokenRead(long nanos) {
+        tokens.increment();
+        tokenLatency.record(nanos);
+    }
+
+    void sourceFinished(long nanos) {
+        sources.increment();
+        sourceLatency.record(nanos);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(tokens.sum(), sources.sum(), tokenLatency.snapshot(), sourceLatency.snapshot());
+    }
+
+    public static final class Snapshot {
+        private final long tokens;
+        private final long sources;
+        private final Histogram.Snapshot tokenLatency;
+        private final Histogram.Snapshot sourceLatency;
+
+        Snapshot(long tokens, long sources, Histogram.Snapshot tokenLatency, Histogram.Snapshot sourceLatency) {
+            this.tokens = tokens;
+            this.sources = sources;
+            this.tokenLatency = tokenLatency;
+            this.sourceLatency = sourceLatency;
+        }
+
+        public long getTokens() {
+            return tokens;
+        }
+
+        /**
+         * @return the number of sources read to the end
+         */
+        public long getSources() {
+            return sources;
+        }
+
+        /**
+         * @return nanoseconds to read each token
+         */
+        public Histogram.Snapshot getTokenLatency() {
+            return tokenLatency;
+        }
+
+        /**
+         * @return nanoseconds spent reading each source that was read to the end
+         */
+        public Histogram.Snapshot getSourceLatency() {
+            return sourceLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "LexerMetrics{tokens=" + tokens + ", sources=" + sources + ", tokenLatency=" + tokenLatency +
+                    ", sourceLatency=" + sourceLatency + '}';
+        }
+    }
+}
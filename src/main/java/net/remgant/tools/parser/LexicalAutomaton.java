@@ -0,0 +1,275 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A DFA that classifies a lexeme the same way {@link Token.TokenFinder#findToken(String)} does,
+ * one character at a time. It runs the keyword trie (case folded), the operator and char trie,
+ * the numeric pattern and the quoted string check in lock step, so by the time the lexer reaches
+ * the end of a lexeme its state already says which kind of token it is.
+ * <p>
+ * Only ASCII is compiled into the table. Any other character moves to {@link #FALLBACK} and the
+ * lexeme is classified by the general code.
+ */
+final class LexicalAutomaton {
+    static final int DEAD = 0;
+    static final int FALLBACK = 1;
+    static final int START = 2;
+
+    private static final int ALPHABET = 128;
+
+    private final int[] transitions;
+    private final int[] kinds;
+    private final Token[] tokens;
+
+    private LexicalAutomaton(int[] transitions, int[] kinds, Token[] tokens) {
+        this.transitions = transitions;
+        this.kinds = kinds;
+        this.tokens = tokens;
+    }
+
+    int next(int state, char c) {
+        return c < ALPHABET ? transitions[state << 7 | c] : FALLBACK;
+    }
+
+    int run(CharSequence s) {
+        int state = START;
+        for (int i = 0; i < s.length(); i++)
+            state = next(state, s.charAt(i));
+        return state;
+    }
+
+    /*
+     * The kind of token a lexeme ending in this state is, or Token.UNKNOWN_KIND for FALLBACK.
+     */
+    int kind(int state) {
+        return kinds[state];
+    }
+
+    /*
+     * The canonical token for the lexeme, or null if it isn't in the vocabulary.
+     */
+    Token token(int state) {
+        return tokens[state];
+    }
+
+    int stateCount() {
+        return kinds.length;
+    }
+
+    /*
+     * Each map goes from the lexeme to the canonical token for it; keyword lexemes are upper case
+     * and matched ignoring case. Operators take precedence over chars.
+     */
+    static LexicalAutomaton compile(Map<String, Token> keywordTokens, Map<String, Token> operatorTokens,
+                                    Map<String, Token> charTokens) {
+        Trie keywords = new Trie();
+        for (Map.Entry<String, Token> e : keywordTokens.entrySet())
+            if (isAscii(e.getKey()))
+                keywords.add(e.getKey(), e.getValue());
+        Trie exact = new Trie();
+        for (Map.Entry<String, Token> e : operatorTokens.entrySet())
+            if (isAscii(e.getKey()))
+                exact.add(e.getKey(), e.getValue());
+        for (Map.Entry<String, Token> e : charTokens.entrySet())
+            if (isAscii(e.getKey()))
+                exact.add(e.getKey(), e.getValue());
+
+        Map<Long, Integer> stateIds = new HashMap<>();
+        List<long[]> states = new ArrayList<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+        states.add(new long[]{-1, -1, -1, -1, -1});
+        states.add(null);
+        states.add(new long[]{0, 0, 0, 0, 0});
+        stateIds.put(key(states.get(DEAD)), DEAD);
+        stateIds.put(key(states.get(START)), START);
+        pending.add(START);
+
+        List<int[]> rows = new ArrayList<>();
+        while (!pending.isEmpty()) {
+            int stateId = pending.remove();
+            long[] tuple = states.get(stateId);
+            int[] row = new int[ALPHABET];
+            for (char c = 0; c < ALPHABET; c++) {
+                long[] target = {
+                        tuple[0] < 0 ? -1 : keywords.child((int) tuple[0], foldCase(c)),
+                        tuple[1] < 0 ? -1 : exact.child((int) tuple[1], c),
+                        nextNumeric((int) tuple[2], c),
+                        nextQuoted((int) tuple[3], c),
+                        nextIdentifier((int) tuple[4], c)
+                };
+                Integer targetId = stateIds.get(key(target));
+                if (targetId == null) {
+                    targetId = states.size();
+                    states.add(target);
+                    stateIds.put(key(target), targetId);
+                    pending.add(targetId);
+                }
+                row[c] = targetId;
+            }
+            while (rows.size() <= stateId)
+                rows.add(null);
+            rows.set(stateId, row);
+        }
+
+        int stateCount = states.size();
+        int[] transitions = new int[stateCount * ALPHABET];
+        int[] kinds = new int[stateCount];
+        Token[] tokens = new Token[stateCount];
+        for (int stateId = 0; stateId < stateCount; stateId++) {
+            if (stateId == FALLBACK) {
+                Arrays.fill(transitions, FALLBACK * ALPHABET, (FALLBACK + 1) * ALPHABET, FALLBACK);
+                kinds[stateId] = Token.UNKNOWN_KIND;
+                continue;
+            }
+            int[] row = stateId < rows.size() ? rows.get(stateId) : null;
+            if (row != null)
+                System.arraycopy(row, 0, transitions, stateId * ALPHABET, ALPHABET);
+            long[] tuple = states.get(stateId);
+            Token token = tuple[0] >= 0 ? keywords.token((int) tuple[0]) : null;
+            if (token == null && tuple[1] >= 0)
+                token = exact.token((int) tuple[1]);
+            if (token != null) {
+                tokens[stateId] = token;
+                kinds[stateId] = token.kind;
+            } else if (tuple[2] == 1) {
+                kinds[stateId] = Token.INTEGER_KIND;
+            } else if (tuple[2] == 3) {
+                kinds[stateId] = Token.DECIMAL_KIND;
+            } else if (tuple[3] == 3 || tuple[3] == 6) {
+                kinds[stateId] = Token.CHAR_STRING_KIND;
+            } else if (tuple[4] == 1) {
+                kinds[stateId] = Token.IDENTIFIER_KIND;
+            } else {
+                kinds[stateId] = Token.OTHER_KIND;
+            }
+        }
+        return new LexicalAutomaton(transitions, kinds, tokens);
+    }
+
+    private static long key(long[] tuple) {
+        return (tuple[0] + 1) << 40 | (tuple[1] + 1) << 16 | (tuple[2] + 1) << 8 | (tuple[3] + 1) << 4 | (tuple[4] + 1);
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++)
+            if (s.charAt(i) >= ALPHABET)
+                return false;
+        return true;
+    }
+
+    private static char foldCase(char c) {
+        return c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // \p{Digit}+(?:\.\p{Digit}+)? : 1 and 3 accept
+    private static int nextNumeric(int state, char c) {
+        switch (state) {
+            case 0:
+            case 1:
+                if (isDigit(c))
+                    return 1;
+                return state == 1 && c == '.' ? 2 : -1;
+            case 2:
+            case 3:
+                return isDigit(c) ? 3 : -1;
+            default:
+                return -1;
+        }
+    }
+
+    // starts and ends with the same quote and has at least two chars: 3 and 6 accept
+    private static int nextQuoted(int state, char c) {
+        switch (state) {
+            case 0:
+                if (c == '\'')
+                    return 1;
+                return c == '"' ? 4 : -1;
+            case 1:
+            case 2:
+            case 3:
+                return c == '\'' ? 3 : 2;
+            case 4:
+            case 5:
+            case 6:
+                return c == '"' ? 6 : 5;
+            default:
+                return -1;
+        }
+    }
+
+    // \p{Alpha}\w* : 1 accepts
+    private static int nextIdentifier(int state, char c) {
+        boolean alpha = c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+        if (state == 0)
+            return alpha ? 1 : -1;
+        if (state == 1)
+            return alpha || isDigit(c) || c == '_' ? 1 : -1;
+        return -1;
+    }
+
+    private static class Trie {
+        private final List<int[]> children = new ArrayList<>();
+        private final List<Token> tokens = new ArrayList<>();
+
+        Trie() {
+            newNode();
+        }
+
+        private int newNode() {
+            int[] row = new int[ALPHABET];
+            Arrays.fill(row, -1);
+            children.add(row);
+            tokens.add(null);
+            return children.size() - 1;
+        }
+
+        void add(String s, Token token) {
+            int node = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (children.get(node)[c] < 0) {
+                    int child = newNode();
+                    children.get(node)[c] = child;
+                }
+                node = children.get(node)[c];
+            }
+            if (tokens.get(node) == null)
+                tokens.set(node, token);
+        }
+
+        int child(int node, char c) {
+            return children.get(node)[c];
+        }
+
+        Token token(int node) {
+            return tokens.get(node);
+        }
+    }
+}
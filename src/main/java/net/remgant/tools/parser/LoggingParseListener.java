@@ -0,0 +1,51 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes parse events to the {@link Parser} logger at trace level. A parser uses it when no
+ * other listener is installed and trace logging is enabled.
+ */
+public class LoggingParseListener implements ParseListener {
+    static final LoggingParseListener INSTANCE = new LoggingParseListener();
+
+    private final Logger log = LoggerFactory.getLogger(Parser.class);
+
+    @Override
+    public void tokenRead(int state, Token token) {
+        log.trace("token={}, state={}", token, state);
+    }
+
+    @Override
+    public void noMatch(int state, Token token) {
+        log.trace("no match: token={}, state={}", token, state);
+    }
+
+    @Override
+    public void transition(int state, int index, int nextState, Token token) {
+        log.trace("match, state={}, index={}", state, index);
+        log.trace("next state = {}", nextState);
+    }
+
+    @Override
+    public void terminalState(int state) {
+        log.trace("terminal state {}", state);
+    }
+}
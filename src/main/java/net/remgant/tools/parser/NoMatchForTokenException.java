@@ -1,7 +1,39 @@
 package net.remgant.tools.parser;
 
 public class NoMatchForTokenException extends ParserException {
+    private final String token;
+    private final int state;
+    private final int offset;
+
     public NoMatchForTokenException(String token, int state) {
-        super(String.format("No match for token=%s in state=%d", token, state));
+        this(token, state, -1, true);
+    }
+
+    /**
+     * @param offset             where the token starts in the source, or -1 if that isn't known
+     * @param writableStackTrace false for an exception that doesn't capture a stack trace
+     */
+    public NoMatchForTokenException(String token, int state, int offset, boolean writableStackTrace) {
+        super(null, writableStackTrace);
+        this.token = token;
+        this.state = state;
+        this.offset = offset;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("No match for token=%s in state=%d", token, state);
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public int getOffset() {
+        return offset;
     }
 }
@@ -1,7 +1,40 @@
 package net.remgant.tools.parser;
 
 public class NoStateForTokenException extends ParserException {
+    private final String token;
+    private final int state;
+    private final int offset;
+
     public NoStateForTokenException(String token) {
-        super(String.format("no next state for token %s", token));
+        this(token, -1, -1, true);
+    }
+
+    /**
+     * @param state              the state below 0 the parser was in when the token was read
+     * @param offset             where the token starts in the source, or -1 if that isn't known
+     * @param writableStackTrace false for an exception that doesn't capture a stack trace
+     */
+    public NoStateForTokenException(String token, int state, int offset, boolean writableStackTrace) {
+        super(null, writableStackTrace);
+        this.token = token;
+        this.state = state;
+        this.offset = offset;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("no next state for token %s", token);
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public int getOffset() {
+        return offset;
     }
 }
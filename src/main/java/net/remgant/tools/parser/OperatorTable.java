@@ -0,0 +1,163 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The operators an {@link ExpressionParser} or {@link ExpressionBuilder} knows, in levels from the
+ * loosest binding to the tightest. A level is either binary operators, all with the same
+ * associativity, or prefix operators, whose operand takes in everything that binds tighter than
+ * the level:
+ * <pre>
+ * OperatorTable.&lt;String&gt;builder()
+ *         .level(Associativity.LEFT, "or")
+ *         .level(Associativity.LEFT, "and")
+ *         .prefixLevel("not")
+ *         .level(Associativity.LEFT, "=", "&lt;", "&gt;")
+ *         .level(Associativity.LEFT, "+", "-")
+ *         .level(Associativity.LEFT, "*", "/")
+ *         .level(Associativity.RIGHT, "^")
+ *         .prefixLevel("-")
+ *         .build();
+ * </pre>
+ *
+ * @param <V> what operators are looked up by, the value of a token for an ExpressionParser
+ */
+public final class OperatorTable<V> {
+    public enum Associativity {
+        LEFT, RIGHT
+    }
+
+    static final class Operator {
+        final int precedence;
+        // the least precedence of an operator the operand on the right may contain
+        final int rightPrecedence;
+
+        Operator(int precedence, int rightPrecedence) {
+            this.precedence = precedence;
+            this.rightPrecedence = rightPrecedence;
+        }
+    }
+
+    private final Map<V, Operator> binary;
+    private final Map<V, Operator> prefix;
+
+    private OperatorTable(Map<V, Operator> binary, Map<V, Operator> prefix) {
+        this.binary = ImmutableMap.copyOf(binary);
+        this.prefix = ImmutableMap.copyOf(prefix);
+    }
+
+    /**
+     * @return the table of the four fixed, left associative levels ExpressionParser and
+     * ExpressionBuilder have always had
+     */
+    public static <V> OperatorTable<V> of(Set<V> logicalOps, Set<V> relationOps, Set<V> additionOps, Set<V> multiplicationOps) {
+        return OperatorTable.<V>builder()
+                .level(Associativity.LEFT, logicalOps)
+                .level(Associativity.LEFT, relationOps)
+                .level(Associativity.LEFT, additionOps)
+                .level(Associativity.LEFT, multiplicationOps)
+                .build();
+    }
+
+    public static <V> Builder<V> builder() {
+        return new Builder<>();
+    }
+
+    Operator binary(V value) {
+        return binary.get(value);
+    }
+
+    Operator prefix(V value) {
+        return prefix.get(value);
+    }
+
+    public boolean isBinary(V value) {
+        return binary.containsKey(value);
+    }
+
+    public boolean isPrefix(V value) {
+        return prefix.containsKey(value);
+    }
+
+    /**
+     * @return every operator in the table, binary or prefix
+     */
+    public Set<V> getOperators() {
+        return ImmutableSet.<V>builder().addAll(binary.keySet()).addAll(prefix.keySet()).build();
+    }
+
+    public static final class Builder<V> {
+        private final Map<V, Operator> binary = new HashMap<>();
+        private final Map<V, Operator> prefix = new HashMap<>();
+        private int precedence;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a level of binary operators that bind tighter than all those added so far.
+         */
+        public Builder<V> level(Associativity associativity, Set<V> operators) {
+            precedence++;
+            Operator operator = new Operator(precedence, associativity == Associativity.LEFT ? precedence + 1 : precedence);
+            for (V value : operators)
+                if (binary.put(value, operator) != null)
+                    throw new IllegalArgumentException("binary operator " + value + " is in more than one level");
+            return this;
+        }
+
+        @SafeVarargs
+        public final Builder<V> level(Associativity associativity, V... operators) {
+            ImmutableSet.Builder<V> set = ImmutableSet.builder();
+            for (V value : operators)
+                set.add(value);
+            return level(associativity, set.build());
+        }
+
+        /**
+         * Adds a level of prefix operators, whose operand may contain the operators of this level
+         * and those added after it.
+         */
+        public Builder<V> prefixLevel(Set<V> operators) {
+            precedence++;
+            Operator operator = new Operator(precedence, precedence);
+            for (V value : operators)
+                if (prefix.put(value, operator) != null)
+                    throw new IllegalArgumentException("prefix operator " + value + " is in more than one level");
+            return this;
+        }
+
+        @SafeVarargs
+        public final Builder<V> prefixLevel(V... operators) {
+            ImmutableSet.Builder<V> set = ImmutableSet.builder();
+            for (V value : operators)
+                set.add(value);
+            return prefixLevel(set.build());
+        }
+
+        public OperatorTable<V> build() {
+            return new OperatorTable<>(binary, prefix);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * The multi-character operators a {@link Lexer} splits out of the source, found by longest match.
+ * Only operators made up entirely of symbols are kept, so word operators such as {@code AND}
+ * don't split identifiers they happen to appear in.
+ */
+final class OperatorTrie {
+    private char[] labels = new char[0];
+    private OperatorTrie[] children = new OperatorTrie[0];
+    private boolean terminal;
+    private int maxLength;
+
+    OperatorTrie(Set<String> operators) {
+        for (String operator : operators)
+            if (isSymbolic(operator))
+                add(operator);
+    }
+
+    private OperatorTrie() {
+    }
+
+    static boolean isSymbolic(String operator) {
+        if (operator.isEmpty())
+            return false;
+        for (int i = 0; i < operator.length(); i++) {
+            char c = operator.charAt(i);
+            if (Character.isLetterOrDigit(c) || Character.isWhitespace(c) || c == '_' || c == '\'' || c == '\"' || c == '\\')
+                return false;
+        }
+        return true;
+    }
+
+    private void add(String operator) {
+        OperatorTrie node = this;
+        for (int i = 0; i < operator.length(); i++) {
+            OperatorTrie child = node.child(operator.charAt(i));
+            if (child == null) {
+                child = new OperatorTrie();
+                node.labels = Arrays.copyOf(node.labels, node.labels.length + 1);
+                node.children = Arrays.copyOf(node.children, node.children.length + 1);
+                node.labels[node.labels.length - 1] = operator.charAt(i);
+                node.children[node.children.length - 1] = child;
+            }
+            node = child;
+        }
+        node.terminal = true;
+        maxLength = Math.max(maxLength, operator.length());
+    }
+
+    OperatorTrie child(char c) {
+        for (int i = 0; i < labels.length; i++)
+            if (labels[i] == c)
+                return children[i];
+        return null;
+    }
+
+    boolean isTerminal() {
+        return terminal;
+    }
+
+    boolean startsWith(char c) {
+        return child(c) != null;
+    }
+
+    /*
+     * The length of the longest operator in the trie.
+     */
+    int maxLength() {
+        return maxLength;
+    }
+
+    /*
+     * The length of the longest operator at from in s, 0 if none starts there.
+     */
+    int match(CharSequence s, int from, int end) {
+        OperatorTrie node = this;
+        int length = 0;
+        for (int i = from; i < end; i++) {
+            node = node.child(s.charAt(i));
+            if (node == null)
+                break;
+            if (node.terminal)
+                length = i - from + 1;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import java.util.ListIterator;
+
+/**
+ * The state of a single call to {@link Parser#parse(String)}. A {@link ContextualParserAction}
+ * gets the context of the parse it is running in, so it can read ahead in the token stream without
+ * touching fields shared with other parses.
+ */
+public class ParseContext {
+    private final TokenSource tokens;
+    int state;
+
+    ParseContext(TokenSource tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * @return a context with no tokens ahead, for an action that's called outside of a parse
+     */
+    static ParseContext none() {
+        return new ParseContext(new TokenSource() {
+            @Override
+            protected Token readToken() {
+                return null;
+            }
+        });
+    }
+
+    public ListIterator<Token> getTokens() {
+        return tokens;
+    }
+
+    public TokenSource getTokenSource() {
+        return tokens;
+    }
+
+    public int getState() {
+        return state;
+    }
+}
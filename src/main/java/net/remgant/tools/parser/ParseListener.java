@@ -0,0 +1,45 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+/**
+ * Receives the events of a parse as they happen. Every method does nothing by default, so a
+ * listener only implements the events it cares about. A parser with no listener installed
+ * doesn't create any event data at all.
+ * <p>
+ * Listeners are called from the parsing thread; one installed on a parser shared between
+ * threads has to be thread safe.
+ */
+public interface ParseListener {
+    default void tokenRead(int state, Token token) {
+    }
+
+    default void noMatch(int state, Token token) {
+    }
+
+    /**
+     * @param index the position of the transition taken among those of {@code state}
+     */
+    default void transition(int state, int index, int nextState, Token token) {
+    }
+
+    default void actionInvoked(int state, Token token, ParserAction action) {
+    }
+
+    default void terminalState(int state) {
+    }
+}
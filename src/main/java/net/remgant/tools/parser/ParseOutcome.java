@@ -0,0 +1,98 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+/**
+ * The result of {@link Parser#tryParse(String)}: either the parse result, or where and why the
+ * input was rejected.
+ */
+public final class ParseOutcome {
+    private final ParserResult result;
+    private final ParserException failure;
+    private final String token;
+    private final int state;
+    private final int offset;
+
+    private ParseOutcome(ParserResult result, ParserException failure, String token, int state, int offset) {
+        this.result = result;
+        this.failure = failure;
+        this.token = token;
+        this.state = state;
+        this.offset = offset;
+    }
+
+    static ParseOutcome success(ParserResult result) {
+        return new ParseOutcome(result, null, null, -1, -1);
+    }
+
+    static ParseOutcome failure(NoMatchForTokenException e) {
+        return new ParseOutcome(null, e, e.getToken(), e.getState(), e.getOffset());
+    }
+
+    static ParseOutcome failure(NoStateForTokenException e) {
+        return new ParseOutcome(null, e, e.getToken(), e.getState(), e.getOffset());
+    }
+
+    static ParseOutcome failure(ParserException e) {
+        return new ParseOutcome(null, e, null, -1, -1);
+    }
+
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    /**
+     * @return the result of a successful parse
+     */
+    public ParserResult getResult() {
+        return result;
+    }
+
+    /**
+     * @return the stackless exception {@link Parser#parse(String)} would have thrown, or null on success
+     */
+    public ParserException getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return the token that was rejected, or null on success or if that isn't known
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * @return the state the token was rejected in, or -1 on success or if that isn't known
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * @return where the rejected token starts in the source, or -1 on success or if that isn't known
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess() ? "ParseOutcome{result=" + result + '}' :
+                "ParseOutcome{token=" + token + ", state=" + state + ", offset=" + offset + '}';
+    }
+}
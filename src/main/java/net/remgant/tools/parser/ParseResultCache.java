@@ -0,0 +1,71 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Results of {@link Parser#parse(String)} kept by source text, so parsing a statement seen
+ * before is a lookup. Install one on a parser with {@link Parser#setResultCache(ParseResultCache)};
+ * a cache shouldn't be shared by parsers with different grammars.
+ * <p>
+ * Only results whose {@link ParserResult#cacheableCopy()} isn't null are cached, and every hit
+ * hands out a fresh copy, so callers can't change what's in the cache. Failed parses aren't
+ * cached.
+ */
+public final class ParseResultCache {
+    private final Cache<String, ParserResult> cache;
+
+    /**
+     * A cache of at most {@code maximumSize} results that evicts the least recently used first.
+     */
+    public ParseResultCache(long maximumSize) {
+        this(CacheBuilder.newBuilder().maximumSize(maximumSize));
+    }
+
+    /**
+     * A cache with the size limit, expiry and concurrency level configured on {@code builder}.
+     */
+    public ParseResultCache(CacheBuilder<Object, Object> builder) {
+        this.cache = builder.recordStats().build();
+    }
+
+    ParserResult get(String source) {
+        ParserResult result = cache.getIfPresent(source);
+        return result == null ? null : result.cacheableCopy();
+    }
+
+    void put(String source, ParserResult result) {
+        ParserResult copy = result == null ? null : result.cacheableCopy();
+        if (copy != null)
+            cache.put(source, copy);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+}
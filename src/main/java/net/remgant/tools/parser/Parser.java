@@ -22,10 +22,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.PrintStream;
+import java.io.Reader;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 
 public abstract class Parser {
@@ -34,14 +43,59 @@ public abstract class Parser {
     protected Lexer lexer;
     protected Set<Integer> terminalStates = ImmutableSet.of();
     protected Token.TokenFinder tokenFinder;
+    /**
+     * @deprecated No longer set, since it would be shared by every parse running on this parser;
+     * use {@link ParseContext#getTokens()} from a {@link ContextualParserAction} instead. Will be
+     * removed in 2.0.0
+     */
+    @Deprecated
     protected ListIterator<Token> tokenIterator;
 
+    /**
+     * Marks a parser class whose {@link #init()} builds the same grammar every time and whose
+     * actions don't use the parser instance. The grammar is then built by the first instance of
+     * the class and shared by every later one, which skip {@code init()} entirely.
+     * <p>
+     * Not inherited: a subclass that adds states has to be marked itself.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    public @interface SharedGrammar {
+    }
+
+    private static final Map<List<Set<?>>, Grammar> NOT_SHARED = Collections.emptyMap();
+
+    // grammars of @SharedGrammar classes, by lexer special chars and operators
+    private static final ClassValue<Map<List<Set<?>>, Grammar>> sharedGrammars =
+            new ClassValue<Map<List<Set<?>>, Grammar>>() {
+                @Override
+                protected Map<List<Set<?>>, Grammar> computeValue(Class<?> type) {
+                    return type.isAnnotationPresent(SharedGrammar.class) ? new ConcurrentHashMap<>() : NOT_SHARED;
+                }
+            };
+
+    // the token finder for the Token subclass a parser class declares, or the default finder
+    private static final ClassValue<Token.TokenFinder> declaredTokenFinders = new ClassValue<Token.TokenFinder>() {
+        @Override
+        protected Token.TokenFinder computeValue(Class<?> type) {
+            for (Class<?> aClass : type.getDeclaredClasses()) {
+                if (Token.class.isAssignableFrom(aClass)) {
+                    //noinspection unchecked
+                    return Token.createTokenFinderFromClass((Class<Token>) aClass);
+                }
+            }
+            return Token.defaultTokenFinder;
+        }
+    };
+
     static class State {
         int stateNumber;
         Token token;
         Predicate<Token> predicate;
         int nextStateNumber;
         ParserAction action;
+        private final boolean matchesByValue;
+        private Resolution resolution;
 
         /**
          * @deprecated Will be removed in 2.0.0
@@ -52,6 +106,7 @@ public abstract class Parser {
             this.predicate = predicate;
             this.nextStateNumber = nextStateNumber;
             this.action = action;
+            this.matchesByValue = false;
         }
 
         State(int stateNumber, Token token, int nextStateNumber, ParserAction action) {
@@ -60,16 +115,62 @@ public abstract class Parser {
             this.predicate = token.getPredicate();
             this.nextStateNumber = nextStateNumber;
             this.action = action;
+            this.matchesByValue = token.matchesByValue();
+        }
+
+        boolean test(Token t) {
+            // a canonical token matches a value if and only if it is that value's canonical token
+            if (matchesByValue && t.kind >= Token.FIRST_VOCABULARY_KIND) {
+                Resolution r = resolution;
+                if (r == null || r.finder != t.finder) {
+                    r = new Resolution(t.finder, token.getValue());
+                    resolution = r;
+                }
+                if (r.byIdentity)
+                    return t == r.canonical;
+            }
+            return predicate.test(t);
+        }
+
+        private static class Resolution {
+            final Token.TokenFinder finder;
+            final boolean byIdentity;
+            final Token canonical;
+
+            Resolution(Token.TokenFinder finder, String value) {
+                this.finder = finder;
+                this.byIdentity = finder.matchesByIdentity(value);
+                this.canonical = finder.canonicalToken(value);
+            }
         }
     }
 
-    private final List<List<State>> stateList;
+    // null until needed when the grammar came from the shared cache
+    private List<List<State>> stateList;
+    private volatile Grammar grammar;
+    private volatile ParseListener parseListener;
+    private volatile ParserMetrics metrics;
+    private volatile boolean adaptiveOrdering;
+    private volatile ParseResultCache resultCache;
+    private volatile TemplateCache templateCache;
+    private volatile boolean stacklessExceptions;
+
+    private List<List<State>> stateList() {
+        if (stateList == null) {
+            List<List<State>> list = new ArrayList<>();
+            for (List<State> states : grammar.states)
+                list.add(states == null ? null : new ArrayList<>(states));
+            stateList = list;
+        }
+        return stateList;
+    }
 
     /**
      * @deprecated Will be removed in 2.0.0
      */
     @Deprecated
     protected void addState(int state, Predicate<Token> predicate, int nextState, ParserAction action) {
+        List<List<State>> stateList = stateList();
         if (stateList.size() < state + 1) {
             if (stateList.size() < state + 1)
                 for (int i = 0; i < state + 1; i++)
@@ -83,9 +184,11 @@ public abstract class Parser {
             stateList.set(state, list);
         }
         list.add(new State(state, predicate, nextState, action));
+        grammar = null;
     }
 
     protected void addState(int state, Token token, int nextState, ParserAction action) {
+            List<List<State>> stateList = stateList();
             if (stateList.size() < state + 1) {
                 if (stateList.size() < state + 1)
                     for (int i=0; i<state + 1; i++)
@@ -99,6 +202,11 @@ public abstract class Parser {
                 stateList.set(state, list);
             }
         list.add(new State(state, token, nextState, action));
+        grammar = null;
+    }
+
+    protected void addState(int state, Token token, int nextState, ContextualParserAction action) {
+        addState(state, token, nextState, (ParserAction) action);
     }
 
     abstract protected void init();
@@ -108,21 +216,37 @@ public abstract class Parser {
     }
 
     protected Parser(Set<Character> lexicalSpecialChars) {
+        this(lexicalSpecialChars, null);
+    }
+
+    /**
+     * A parser whose lexer splits {@code lexicalOperators} and the grammar's operator tokens out of
+     * the source by longest match, so they needn't be surrounded by whitespace or special chars.
+     */
+    protected Parser(Set<Character> lexicalSpecialChars, Set<String> lexicalOperators) {
+        Map<List<Set<?>>, Grammar> shared = sharedGrammars.get(getClass());
+        Grammar g = shared.get(Arrays.asList(lexicalSpecialChars, lexicalOperators));
+        if (g != null) {
+            this.grammar = g;
+            this.terminalStates = g.terminalStatesSource;
+            this.lexer = g.lexer;
+            this.tokenFinder = g.lexer.getTokenFinder() != Token.defaultTokenFinder ? g.lexer.getTokenFinder() : null;
+            return;
+        }
         this.stateList = new ArrayList<>();
         init();
-        Class<?>[] declaredClasses = this.getClass().getDeclaredClasses();
-        for (Class<?> aClass : declaredClasses) {
-            if (Token.class.isAssignableFrom(aClass)) {
-                //noinspection unchecked
-                this.tokenFinder = Token.createTokenFinderFromClass((Class<Token>) aClass);
-                break;
-            }
-        }
-        this.lexer = new Lexer(lexicalSpecialChars, this.tokenFinder != null ? this.tokenFinder : Token.defaultTokenFinder);
+        Token.TokenFinder finder = declaredTokenFinders.get(getClass());
+        if (finder != Token.defaultTokenFinder)
+            this.tokenFinder = finder;
+        this.lexer = new Lexer(lexicalSpecialChars, lexicalOperators, finder);
+        this.grammar = new Grammar(stateList, terminalStates, lexer);
+        if (shared != NOT_SHARED)
+            shared.putIfAbsent(Arrays.asList(ImmutableSet.copyOf(lexicalSpecialChars),
+                    lexicalOperators == null ? null : ImmutableSet.copyOf(lexicalOperators)), grammar);
     }
 
     public void printStateDiagram(@SuppressWarnings("SameParameterValue") PrintStream out) {
-        for (List<State> l : stateList) {
+        for (List<State> l : stateList()) {
             if (l == null)
                 continue;
             for (State s : l) {
@@ -136,48 +260,292 @@ public abstract class Parser {
         }
     }
 
+    /**
+     * Installs a listener for the events of every later parse, or removes it if {@code listener} is
+     * null. Without one, events are only logged, and only when trace logging is enabled.
+     */
+    public void setParseListener(ParseListener listener) {
+        this.parseListener = listener;
+    }
+
+    public ParseListener getParseListener() {
+        return parseListener;
+    }
+
+    /**
+     * Counts the events of every later parse, or stops counting if {@code metrics} is null. The time
+     * each parse spends lexing is counted too; set metrics on {@link #lexer} to count its tokens.
+     * {@code metrics} shouldn't be shared with a parser that has a different grammar.
+     */
+    public void setMetrics(ParserMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public ParserMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * When enabled, parses record which transitions match in states where the transition table
+     * can't pick one from the token's kind alone, and the most frequent ones get tested first.
+     * Transitions that can match the same token are never reordered, so results don't change;
+     * in practice that means transitions for different identifier values, since the table already
+     * picks keywords, operators and chars by kind.
+     */
+    public void setAdaptiveOrdering(boolean adaptiveOrdering) {
+        this.adaptiveOrdering = adaptiveOrdering;
+    }
+
+    public boolean isAdaptiveOrdering() {
+        return adaptiveOrdering;
+    }
+
+    /**
+     * Caches the results of {@link #parse(String)}, or stops caching if {@code cache} is null.
+     * Parses that hit the cache don't run any actions.
+     */
+    public void setResultCache(ParseResultCache cache) {
+        this.resultCache = cache;
+    }
+
+    public ParseResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Parses {@link #parse(String)} statements that differ from an earlier one only in their
+     * literals by binding the literals into the earlier result, or stops if {@code cache} is null.
+     */
+    public void setTemplateCache(TemplateCache cache) {
+        this.templateCache = cache;
+    }
+
+    public TemplateCache getTemplateCache() {
+        return templateCache;
+    }
+
+    /**
+     * When enabled, the {@link NoMatchForTokenException}s and {@link NoStateForTokenException}s
+     * that {@code parse} throws don't capture a stack trace, so rejecting input costs little more
+     * than accepting it.
+     */
+    public void setStacklessExceptions(boolean stacklessExceptions) {
+        this.stacklessExceptions = stacklessExceptions;
+    }
+
+    public boolean isStacklessExceptions() {
+        return stacklessExceptions;
+    }
+
     protected ParserResult resultInitializer() {
         return null;
     }
     
     public ParserResult parse(String source) throws ParserException {
+        return parse(source, stacklessExceptions);
+    }
+
+    public ParserResult parse(Reader source) throws ParserException {
+        return parseTokens(grammar(), lexer.tokenSource(source), null, stacklessExceptions);
+    }
+
+    public Lexer getLexer() {
+        return lexer;
+    }
+
+    /**
+     * Parses tokens lexed ahead of time, with {@link #getLexer()} for instance. Tokens are only made as the parser
+     * reaches them, and those that aren't shared, such as identifiers, are made for each parse of the buffer.
+     */
+    public ParserResult parse(TokenBuffer source) throws ParserException {
+        return parseTokens(grammar(), source.tokenSource(), null, stacklessExceptions);
+    }
+
+    /**
+     * Parses {@code source} like {@link #parse(String)}, but returns rejected input as a failed
+     * outcome instead of throwing. The exceptions behind failures never capture a stack trace.
+     */
+    public ParseOutcome tryParse(String source) {
+        try {
+            return ParseOutcome.success(parse(source, true));
+        } catch (NoMatchForTokenException e) {
+            return ParseOutcome.failure(e);
+        } catch (NoStateForTokenException e) {
+            return ParseOutcome.failure(e);
+        } catch (ParserException e) {
+            return ParseOutcome.failure(e);
+        }
+    }
+
+    private ParserResult parse(String source, boolean stackless) throws ParserException {
+        ParseResultCache cache = resultCache;
+        if (cache == null)
+            return parseSource(source, stackless);
+        ParserResult result = cache.get(source);
+        if (result == null) {
+            result = parseSource(source, stackless);
+            cache.put(source, result);
+        }
+        return result;
+    }
+
+    /**
+     * Runs the state machine over {@code source} the way {@link #parse(String)} does, but without
+     * creating a result or running any actions. A parser whose actions read tokens ahead from
+     * the {@link ParseContext} may accept different input here, since those tokens are left for
+     * the state machine.
+     */
+    public Recognition recognize(CharSequence source) {
+        Grammar g = grammar();
+        // tokens are only made for lexemes whose kind isn't enough to pick a transition
+        Lexer.CharSequenceTokenSource lexemes = g.lexer.charSequenceTokenSource(source);
+        int state = 0;
+        while (lexemes.advance()) {
+            if (state < 0)
+                return Recognition.of(Recognition.Outcome.REJECTED, state);
+            List<State> plist = state < g.states.size() ? g.states.get(state) : null;
+            int r = plist == null ? TransitionTable.NO_MATCH : g.table.lookupKind(state, lexemes.kind());
+            if (r < TransitionTable.NO_MATCH) {
+                Token token = lexemes.token();
+                TransitionTable.Scan scan = g.table.scan(r);
+                r = TransitionTable.NO_MATCH;
+                for (int i : scan.order()) {
+                    if (plist.get(i).test(token)) {
+                        r = i;
+                        break;
+                    }
+                }
+            }
+            if (r == TransitionTable.NO_MATCH)
+                return Recognition.of(Recognition.Outcome.REJECTED_AT_STATE, state);
+            state = plist.get(r).nextStateNumber;
+            if (g.isTerminal(state))
+                break;
+        }
+        return Recognition.of(Recognition.Outcome.ACCEPTED, state);
+    }
+
+    private ParserResult parseSource(String source, boolean stackless) throws ParserException {
+        Grammar g = grammar();
+        TemplateCache templates = templateCache;
+        if (templates == null)
+            return parseTokens(g, g.lexer.tokenSource(source), null, stackless);
+        // lexed into primitive columns; tokens are only made for literals until the statement has to be parsed
+        TokenBuffer buffer = g.lexer.tokenBuffer(source);
+        List<Token> literals = new ArrayList<>();
+        String shape = TemplateCache.shape(buffer, literals);
+        TemplateCache.Template template = templates.get(shape);
+        if (template != null && template.grammar == g) {
+            ParserResult result = template.bind(g, literals);
+            if (result != null || !template.isCacheable())
+                return result != null ? result : parseTokens(g, buffer.tokenSource(), null, stackless);
+        }
+        TemplateCache.Recorder recorder = new TemplateCache.Recorder(literals.size());
+        ParserResult result = parseTokens(g, buffer.tokenSource(), recorder, stackless);
+        templates.put(shape, recorder.template(g, result, literals));
+        return result;
+    }
+
+    /*
+     * The grammar is rebuilt if a subclass has changed the states, terminal states or lexer
+     * since it was last built; otherwise every parse shares the same one.
+     */
+    Grammar grammar() {
+        Grammar g = grammar;
+        if (g == null || g.terminalStatesSource != terminalStates || g.lexer != lexer) {
+            g = new Grammar(stateList(), terminalStates, lexer);
+            grammar = g;
+        }
+        return g;
+    }
+
+    private ParserResult parseTokens(Grammar g, TokenSource tokenSource, TemplateCache.Recorder recorder,
+                                     boolean stackless) throws ParserException {
+        ParseListener listener = parseListener;
+        if (listener == null && log.isTraceEnabled())
+            listener = LoggingParseListener.INSTANCE;
+        ParserMetrics metrics = this.metrics;
+        if (metrics == null)
+            return parseTokens(g, tokenSource, listener, null, null, recorder, stackless);
+        tokenSource.timed = true;
+        long start = System.nanoTime();
+        try {
+            return parseTokens(g, tokenSource, listener, metrics, metrics.counters(g), recorder, stackless);
+        } finally {
+            metrics.parseFinished(tokenSource.nextIndex(), System.nanoTime() - start, tokenSource.lexNanos);
+        }
+    }
+
+    private ParserResult parseTokens(Grammar g, TokenSource tokenSource, ParseListener listener,
+                                     ParserMetrics metrics, ParserMetrics.Counters counters,
+                                     TemplateCache.Recorder recorder, boolean stackless) throws ParserException {
+        boolean adaptive = adaptiveOrdering;
         int state = 0;
         int r;
         ParserResult parserResult = resultInitializer();
         Token token;
-        tokenIterator= lexer.tokenize(source);
-        while (tokenIterator.hasNext()) {
-            token = tokenIterator.next();
-            log.trace(String.format("token=%s, state=%s", token, state));
-            if (state < 0)
-                throw new NoStateForTokenException(token.getValue());
-            List<State> plist = stateList.get(state);
-            r = -1;
-            for (int i = 0; i < plist.size(); i++) {
-                State s = plist.get(i);
-                if (s.predicate.test(token)) {
-                    r = i;
-                    log.trace(String.format("match, state=%d, index=%d", state, r));
-                    break;
+        ParseContext context = new ParseContext(tokenSource);
+        while (tokenSource.hasNext()) {
+            token = tokenSource.next();
+            if (listener != null)
+                listener.tokenRead(state, token);
+            if (counters != null)
+                counters.tokenRead(state);
+            if (state < 0) {
+                if (metrics != null)
+                    metrics.noState(state);
+                throw new NoStateForTokenException(token.getValue(), state, tokenSource.getOffset(), !stackless);
+            }
+            List<State> plist = state < g.states.size() ? g.states.get(state) : null;
+            r = plist == null ? TransitionTable.NO_MATCH : g.table.lookup(state, token);
+            if (r < TransitionTable.NO_MATCH) {
+                TransitionTable.Scan scan = g.table.scan(r);
+                r = TransitionTable.NO_MATCH;
+                for (int i : scan.order()) {
+                    if (plist.get(i).test(token)) {
+                        r = i;
+                        if (adaptive)
+                            scan.recordMatch(i);
+                        break;
+                    }
                 }
             }
-            if (r == -1) {
-                log.trace(String.format("no match: token=%s, state=%d", token, state));
-                throw new NoMatchForTokenException(token.getValue(), state);
+            if (r == TransitionTable.NO_MATCH) {
+                if (listener != null)
+                    listener.noMatch(state, token);
+                if (metrics != null)
+                    metrics.noMatch(state);
+                throw new NoMatchForTokenException(token.getValue(), state, tokenSource.getOffset(), !stackless);
             }
+            State transition = plist.get(r);
+            if (listener != null)
+                listener.transition(state, r, transition.nextStateNumber, token);
+            if (counters != null)
+                counters.transition(state, r);
 
-            if (plist.get(r).action != null)
-                parserResult = plist.get(r).action.doAction(token.toString(), parserResult);
+            if (recorder != null)
+                recorder.tokenRead(state, token, r, transition.action);
 
-            state = plist.get(r).nextStateNumber;
-            log.trace(String.format("next state = %d", state));
-            if (terminalStates.contains(state)) {
-                log.trace(String.format("terminal state %d", state));
+            context.state = state;
+            if (transition.action != null) {
+                if (listener != null)
+                    listener.actionInvoked(state, token, transition.action);
+                // only a span action is handed the text in place; any other gets the cached value
+                if (transition.action instanceof SpanParserAction)
+                    parserResult = transition.action.doAction(token.getText(), parserResult, context);
+                else
+                    parserResult = transition.action.doAction(token.getValue(), parserResult, context);
+                if (recorder != null)
+                    recorder.actionDone(tokenSource.nextIndex());
+            }
+
+            state = transition.nextStateNumber;
+            if (g.isTerminal(state)) {
+                if (listener != null)
+                    listener.terminalState(state);
                 break;
             }
         }
         return parserResult;
     }
 }
-
-
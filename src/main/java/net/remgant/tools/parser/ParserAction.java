@@ -19,4 +19,60 @@ package net.remgant.tools.parser;
 @FunctionalInterface
 public interface ParserAction {
     ParserResult doAction(String string, ParserResult parserResult);
+
+    default ParserResult doAction(String string, ParserResult parserResult, ParseContext context) {
+        return doAction(string, parserResult);
+    }
+
+    /**
+     * Called by the parser with the text of the token, which may be a view into the source rather
+     * than a string of its own. The default copies it and calls
+     * {@link #doAction(String, ParserResult, ParseContext)}; see {@link SpanParserAction} for an
+     * action that can use it as it is.
+     */
+    default ParserResult doAction(CharSequence text, ParserResult parserResult, ParseContext context) {
+        return doAction(text.toString(), parserResult, context);
+    }
+
+    /**
+     * Called on a hit in a {@link TemplateCache} instead of {@link #doAction(String, ParserResult)}.
+     * {@code parserResult} is a copy of the result of a statement that differs only in its literals,
+     * and the action replaces the literal it was given then with {@code literal}. The default returns
+     * null, which means the action can't, and statements it gets a literal in are always parsed.
+     */
+    default ParserResult bind(String literal, ParserResult parserResult) {
+        return null;
+    }
+
+    /**
+     * @return an action that binds a literal by doing the same as {@code action}, for an action
+     * that sets a value from the token it gets rather than adding to one
+     * @throws IllegalArgumentException if {@code action} is a {@link ContextualParserAction}, which
+     * has no parse context to be called with on a template cache hit
+     */
+    static ParserAction binding(ParserAction action) {
+        if (action instanceof ContextualParserAction)
+            throw new IllegalArgumentException("a contextual action can't bind a literal");
+        return new ParserAction() {
+            @Override
+            public ParserResult doAction(String string, ParserResult parserResult) {
+                return action.doAction(string, parserResult);
+            }
+
+            @Override
+            public ParserResult doAction(String string, ParserResult parserResult, ParseContext context) {
+                return action.doAction(string, parserResult, context);
+            }
+
+            @Override
+            public ParserResult doAction(CharSequence text, ParserResult parserResult, ParseContext context) {
+                return action.doAction(text, parserResult, context);
+            }
+
+            @Override
+            public ParserResult bind(String literal, ParserResult parserResult) {
+                return action.doAction(literal, parserResult);
+            }
+        };
+    }
 }
@@ -4,4 +4,12 @@ public class ParserException extends Exception {
     public ParserException(String message) {
         super(message);
     }
+
+    /**
+     * @param writableStackTrace false for an exception that doesn't capture a stack trace, which
+     *                           makes it much cheaper to create when rejected input is common
+     */
+    protected ParserException(String message, boolean writableStackTrace) {
+        super(message, null, writableStackTrace, writableStackTrace);
+    }
 }
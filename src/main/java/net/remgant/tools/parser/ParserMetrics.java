@@ -0,0 +1,229 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what a {@link Parser} does: how often each state is entered and each transition is
+ * taken, which states tokens fail to match in, how many tokens each parse reads and how long it
+ * takes. Install one with {@link Parser#setMetrics(ParserMetrics)}, a separate instance for each
+ * parser: counts are kept by state number, so parsers with different grammars would have theirs
+ * summed together. Parsers of one {@link Parser.SharedGrammar} class parse with the same grammar
+ * and can share an instance.
+ * <p>
+ * Everything is kept in striped counters, so parses running at once on different threads don't
+ * contend on them. Read the counts with {@link #snapshot()}.
+ */
+public final class ParserMetrics {
+    private final LongAdder parses = new LongAdder();
+    private final Histogram tokensPerParse = new Histogram();
+    private final Histogram parseLatency = new Histogram();
+    private final Histogram lexLatency = new Histogram();
+    private final ConcurrentMap<Integer, LongAdder> noMatch = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, LongAdder> noState = new ConcurrentHashMap<>();
+    private volatile Counters counters = new Counters(null, new LongAdder[0], new LongAdder[0][]);
+
+    /*
+     * Counters laid out for a grammar, grown, keeping the counts so far, when the parser rebuilds
+     * its grammar with more states or transitions.
+     */
+    Counters counters(Grammar grammar) {
+        Counters c = counters;
+        if (c.grammar == grammar)
+            return c;
+        synchronized (this) {
+            c = counters;
+            if (c.grammar != grammar) {
+                c = c.resize(grammar);
+                counters = c;
+            }
+            return c;
+        }
+    }
+
+    void noMatch(int state) {
+        noMatch.computeIfAbsent(state, s -> new LongAdder()).increment();
+    }
+
+    void noState(int state) {
+        noState.computeIfAbsent(state, s -> new LongAdder()).increment();
+    }
+
+    void parseFinished(int tokens, long nanos, long lexNanos) {
+        parses.increment();
+        tokensPerParse.record(tokens);
+        parseLatency.record(nanos);
+        lexLatency.record(lexNanos);
+    }
+
+    static final class Counters {
+        private final Grammar grammar;
+        private final LongAdder[] stateHits;
+        private final LongAdder[][] transitionHits;
+
+        private Counters(Grammar grammar, LongAdder[] stateHits, LongAdder[][] transitionHits) {
+            this.grammar = grammar;
+            this.stateHits = stateHits;
+            this.transitionHits = transitionHits;
+        }
+
+        void tokenRead(int state) {
+            if (state >= 0 && state < stateHits.length)
+                stateHits[state].increment();
+        }
+
+        void transition(int state, int index) {
+            transitionHits[state][index].increment();
+        }
+
+        private Counters resize(Grammar g) {
+            int stateCount = Math.max(stateHits.length, g.states.size());
+            LongAdder[] newStateHits = new LongAdder[stateCount];
+            LongAdder[][] newTransitionHits = new LongAdder[stateCount][];
+            for (int state = 0; state < stateCount; state++) {
+                newStateHits[state] = state < stateHits.length ? stateHits[state] : new LongAdder();
+                LongAdder[] old = state < transitionHits.length ? transitionHits[state] : new LongAdder[0];
+                List<Parser.State> list = state < g.states.size() ? g.states.get(state) : null;
+                int transitionCount = Math.max(old.length, list == null ? 0 : list.size());
+                LongAdder[] row = new LongAdder[transitionCount];
+                for (int i = 0; i < transitionCount; i++)
+                    row[i] = i < old.length ? old[i] : new LongAdder();
+                newTransitionHits[state] = row;
+            }
+            return new Counters(g, newStateHits, newTransitionHits);
+        }
+    }
+
+    public Snapshot snapshot() {
+        Counters c = counters;
+        ImmutableMap.Builder<Integer, Long> stateHits = ImmutableMap.builder();
+        ImmutableMap.Builder<Integer, List<Long>> transitionHits = ImmutableMap.builder();
+        for (int state = 0; state < c.stateHits.length; state++) {
+            stateHits.put(state, c.stateHits[state].sum());
+            ImmutableList.Builder<Long> row = ImmutableList.builder();
+            for (LongAdder adder : c.transitionHits[state])
+                row.add(adder.sum());
+            transitionHits.put(state, row.build());
+        }
+        return new Snapshot(parses.sum(), stateHits.build(), transitionHits.build(), sums(noMatch), sums(noState),
+                tokensPerParse.snapshot(), parseLatency.snapshot(), lexLatency.snapshot());
+    }
+
+    private static Map<Integer, Long> sums(Map<Integer, LongAdder> adders) {
+        ImmutableMap.Builder<Integer, Long> builder = ImmutableMap.builder();
+        adders.forEach((state, adder) -> builder.put(state, adder.sum()));
+        return builder.build();
+    }
+
+    /**
+     * The counts of a {@link ParserMetrics} at one point in time.
+     */
+    public static final class Snapshot {
+        private final long parses;
+        private final Map<Integer, Long> stateHits;
+        private final Map<Integer, List<Long>> transitionHits;
+        private final Map<Integer, Long> noMatch;
+        private final Map<Integer, Long> noState;
+        private final Histogram.Snapshot tokensPerParse;
+        private final Histogram.Snapshot parseLatency;
+        private final Histogram.Snapshot lexLatency;
+
+        Snapshot(long parses, Map<Integer, Long> stateHits, Map<Integer, List<Long>> transitionHits,
+                 Map<Integer, Long> noMatch, Map<Integer, Long> noState, Histogram.Snapshot tokensPerParse,
+                 Histogram.Snapshot parseLatency, Histogram.Snapshot lexLatency) {
+            this.parses = parses;
+            this.stateHits = stateHits;
+            this.transitionHits = transitionHits;
+            this.noMatch = noMatch;
+            this.noState = noState;
+            this.tokensPerParse = tokensPerParse;
+            this.parseLatency = parseLatency;
+            this.lexLatency = lexLatency;
+        }
+
+        public long getParses() {
+            return parses;
+        }
+
+        /**
+         * @return the number of tokens read in each state
+         */
+        public Map<Integer, Long> getStateHits() {
+            return stateHits;
+        }
+
+        /**
+         * @return for each state, the number of times each of its transitions was taken, in the
+         * order they were added
+         */
+        public Map<Integer, List<Long>> getTransitionHits() {
+            return transitionHits;
+        }
+
+        public long getTransitionHits(int state, int index) {
+            List<Long> hits = transitionHits.get(state);
+            return hits == null || index >= hits.size() ? 0 : hits.get(index);
+        }
+
+        /**
+         * @return the number of {@link NoMatchForTokenException}s thrown in each state
+         */
+        public Map<Integer, Long> getNoMatch() {
+            return noMatch;
+        }
+
+        /**
+         * @return the number of {@link NoStateForTokenException}s thrown in each state
+         */
+        public Map<Integer, Long> getNoState() {
+            return noState;
+        }
+
+        public Histogram.Snapshot getTokensPerParse() {
+            return tokensPerParse;
+        }
+
+        /**
+         * @return nanoseconds for each parse, lexing included
+         */
+        public Histogram.Snapshot getParseLatency() {
+            return parseLatency;
+        }
+
+        /**
+         * @return nanoseconds spent lexing in each parse
+         */
+        public Histogram.Snapshot getLexLatency() {
+            return lexLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "ParserMetrics{parses=" + parses + ", stateHits=" + stateHits + ", transitionHits=" +
+                    transitionHits + ", noMatch=" + noMatch + ", noState=" + noState + ", tokensPerParse=" +
+                    tokensPerParse + ", parseLatency=" + parseLatency + ", lexLatency=" + lexLatency + '}';
+        }
+    }
+}
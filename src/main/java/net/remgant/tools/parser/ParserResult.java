@@ -17,4 +17,13 @@
 package net.remgant.tools.parser;
 
 public class ParserResult {
+    /**
+     * Called when a parse result is put in or handed out of a {@link ParseResultCache}. Returns a
+     * result equal to this one that can be changed without changing this one, or this result itself
+     * if it never changes once the parse is over. The default returns null: a result that doesn't
+     * override this is never cached.
+     */
+    public ParserResult cacheableCopy() {
+        return null;
+    }
 }
@@ -0,0 +1,85 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+/**
+ * Whether a {@link Parser} accepts some input, from {@link Parser#recognize(CharSequence)}.
+ * Instances for states from -128 to 127, which includes the negative states rejections usually
+ * end in, are shared, so recognizing in those doesn't allocate one.
+ */
+public final class Recognition {
+    public enum Outcome {
+        /**
+         * Every token had a transition, or a terminal state was reached
+         */
+        ACCEPTED,
+        /**
+         * A token came after a transition to a state below 0, where {@link Parser#parse(String)}
+         * throws {@link NoStateForTokenException}
+         */
+        REJECTED,
+        /**
+         * A token had no transition in the state, where {@link Parser#parse(String)} throws
+         * {@link NoMatchForTokenException}
+         */
+        REJECTED_AT_STATE
+    }
+
+    private static final int SHARED_STATES = 128;
+    // indexed by state + SHARED_STATES
+    private static final Recognition[][] shared = new Recognition[Outcome.values().length][2 * SHARED_STATES];
+
+    static {
+        for (Outcome outcome : Outcome.values())
+            for (int state = -SHARED_STATES; state < SHARED_STATES; state++)
+                shared[outcome.ordinal()][state + SHARED_STATES] = new Recognition(outcome, state);
+    }
+
+    private final Outcome outcome;
+    private final int state;
+
+    private Recognition(Outcome outcome, int state) {
+        this.outcome = outcome;
+        this.state = state;
+    }
+
+    static Recognition of(Outcome outcome, int state) {
+        if (state >= -SHARED_STATES && state < SHARED_STATES)
+            return shared[outcome.ordinal()][state + SHARED_STATES];
+        return new Recognition(outcome, state);
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public boolean isAccepted() {
+        return outcome == Outcome.ACCEPTED;
+    }
+
+    /**
+     * @return the state the input was accepted in, or the state it was rejected in
+     */
+    public int getState() {
+        return state;
+    }
+
+    @Override
+    public String toString() {
+        return outcome + "(" + state + ")";
+    }
+}
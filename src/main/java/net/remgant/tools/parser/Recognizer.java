@@ -0,0 +1,88 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+/*
+ * Hand-written, linear time versions of the patterns the lexer's token classes are defined by.
+ * Each tests the characters start to end of a CharSequence, so a token can be tested in place.
+ */
+@FunctionalInterface
+interface Recognizer {
+    boolean test(CharSequence s, int start, int end);
+
+    // \p{Alpha}\w*
+    Recognizer IDENTIFIER = (s, start, end) -> {
+        if (start >= end || !isAlpha(s.charAt(start)))
+            return false;
+        for (int i = start + 1; i < end; i++) {
+            char c = s.charAt(i);
+            if (!isAlpha(c) && !isDigit(c) && c != '_')
+                return false;
+        }
+        return true;
+    };
+
+    // \p{Digit}+
+    Recognizer INTEGER = (s, start, end) -> digits(s, start, end) == end && start < end;
+
+    // \p{Digit}+(?:\.\p{Digit}+)?
+    Recognizer NUMBER = (s, start, end) -> {
+        int i = digits(s, start, end);
+        if (i == start)
+            return false;
+        if (i == end)
+            return true;
+        return s.charAt(i) == '.' && i + 1 < end && digits(s, i + 1, end) == end;
+    };
+
+    /*
+     * ((?<![\\])['"])((?:.(?!(?<![\\])\1))*.?)\1, which comes down to: the same quote at both
+     * ends, no line terminators between them, and no unescaped quote between them except as the
+     * first character.
+     */
+    Recognizer CHAR_STRING = (s, start, end) -> {
+        if (end - start < 2)
+            return false;
+        char quote = s.charAt(start);
+        if (quote != '\'' && quote != '\"' || s.charAt(end - 1) != quote)
+            return false;
+        for (int i = start + 1; i < end - 1; i++) {
+            char c = s.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+                return false;
+            if (c == quote && i > start + 1 && s.charAt(i - 1) != '\\')
+                return false;
+        }
+        return true;
+    };
+
+    static boolean isAlpha(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // the end of the run of digits starting at start
+    static int digits(CharSequence s, int start, int end) {
+        int i = start;
+        while (i < end && isDigit(s.charAt(i)))
+            i++;
+        return i;
+    }
+}
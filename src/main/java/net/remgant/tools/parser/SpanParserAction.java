@@ -0,0 +1,41 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+/**
+ * An action that takes the text of its token as a {@link CharSequence}, so the parser doesn't
+ * have to copy it out of the source. The text may be a view into the source, so an action that
+ * keeps it should keep its toString().
+ */
+@FunctionalInterface
+public interface SpanParserAction extends ParserAction {
+    @Override
+    ParserResult doAction(CharSequence text, ParserResult parserResult, ParseContext context);
+
+    @Override
+    default ParserResult doAction(String string, ParserResult parserResult, ParseContext context) {
+        return doAction((CharSequence) string, parserResult, context);
+    }
+
+    /**
+     * Runs the action outside of a parse, with a context that has no tokens ahead.
+     */
+    @Override
+    default ParserResult doAction(String string, ParserResult parserResult) {
+        return doAction((CharSequence) string, parserResult, ParseContext.none());
+    }
+}
@@ -0,0 +1,183 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Results of {@link Parser#parse(String)} kept by statement shape: the statement's tokens with
+ * integer, decimal and quoted string literals replaced by a placeholder for their kind. The first
+ * statement of a shape is parsed in full; a later one only has its literals checked against the
+ * transitions the first one took and bound into a copy of its result with
+ * {@link ParserAction#bind(String, ParserResult)}, without running the parser.
+ * <p>
+ * A shape is parsed in full every time if its result isn't cacheable (see
+ * {@link ParserResult#cacheableCopy()}), if an action that gets a literal can't bind one, or if an
+ * action reads tokens ahead. Actions aren't run on a hit, so they shouldn't do anything but build
+ * the result. Install one on a parser with {@link Parser#setTemplateCache(TemplateCache)}.
+ */
+public final class TemplateCache {
+    private final Cache<String, Template> cache;
+
+    /**
+     * A cache of at most {@code maximumSize} shapes that evicts the least recently used first.
+     */
+    public TemplateCache(long maximumSize) {
+        this(CacheBuilder.newBuilder().maximumSize(maximumSize));
+    }
+
+    /**
+     * A cache with the size limit, expiry and concurrency level configured on {@code builder}.
+     */
+    public TemplateCache(CacheBuilder<Object, Object> builder) {
+        this.cache = builder.recordStats().build();
+    }
+
+    /**
+     * @return the shape of the tokens in {@code buffer}, adding its literals to {@code literals}
+     */
+    static String shape(TokenBuffer buffer, List<Token> literals) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < buffer.size(); i++) {
+            int kind = buffer.getKind(i);
+            if (Token.isLiteralKind(kind)) {
+                literals.add(buffer.getToken(i));
+                sb.append('?').append(kind);
+            } else if (kind >= Token.FIRST_VOCABULARY_KIND) {
+                // a canonical token, whatever case it was written in
+                sb.append('#').append(kind);
+            } else {
+                int start = buffer.getStart(i);
+                int end = buffer.getEnd(i);
+                sb.append(end - start).append(':').append(buffer.source(), start, end);
+            }
+        }
+        return sb.toString();
+    }
+
+    Template get(String shape) {
+        return cache.getIfPresent(shape);
+    }
+
+    void put(String shape, Template template) {
+        cache.put(shape, template);
+    }
+
+    /**
+     * Hits include shapes found not to be cacheable, which are parsed in full.
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /*
+     * What happened to each literal of a statement as it was parsed: the state it was read in, or
+     * -1 if the parse ended first, the transition it took and that transition's action.
+     */
+    static final class Recorder {
+        private final int[] states;
+        private final int[] transitions;
+        private final ParserAction[] actions;
+        private int literals;
+        private int tokens;
+        private boolean readAhead;
+
+        Recorder(int literalCount) {
+            this.states = new int[literalCount];
+            this.transitions = new int[literalCount];
+            this.actions = new ParserAction[literalCount];
+            Arrays.fill(states, -1);
+        }
+
+        void tokenRead(int state, Token token, int transition, ParserAction action) {
+            tokens++;
+            if (!token.isLiteral() || literals >= states.length)
+                return;
+            states[literals] = state;
+            transitions[literals] = transition;
+            actions[literals] = action;
+            literals++;
+        }
+
+        void actionDone(int nextIndex) {
+            if (nextIndex != tokens)
+                readAhead = true;
+        }
+
+        /*
+         * The template for the shape, or one marking it as not cacheable. Binding the statement's
+         * own literals checks that every action that got one can bind it.
+         */
+        Template template(Grammar grammar, ParserResult result, List<Token> literals) {
+            ParserResult copy = result == null || readAhead ? null : result.cacheableCopy();
+            if (copy == null)
+                return new Template(grammar, null, null, null, null);
+            Template template = new Template(grammar, copy, states, transitions, actions);
+            return template.bind(grammar, literals) == null ? new Template(grammar, null, null, null, null) : template;
+        }
+    }
+
+    static final class Template {
+        final Grammar grammar;
+        private final ParserResult result;
+        private final int[] states;
+        private final int[] transitions;
+        private final ParserAction[] actions;
+
+        private Template(Grammar grammar, ParserResult result, int[] states, int[] transitions, ParserAction[] actions) {
+            this.grammar = grammar;
+            this.result = result;
+            this.states = states;
+            this.transitions = transitions;
+            this.actions = actions;
+        }
+
+        boolean isCacheable() {
+            return result != null;
+        }
+
+        /**
+         * @return a copy of the result with {@code literals} bound into it, or null if the literals
+         * wouldn't take the same transitions or an action can't bind one
+         */
+        ParserResult bind(Grammar grammar, List<Token> literals) {
+            if (result == null || grammar != this.grammar)
+                return null;
+            for (int i = 0; i < states.length; i++)
+                if (states[i] >= 0 && grammar.transition(states[i], literals.get(i)) != transitions[i])
+                    return null;
+            ParserResult bound = result.cacheableCopy();
+            for (int i = 0; i < states.length && bound != null; i++)
+                if (actions[i] != null)
+                    bound = actions[i].bind(literals.get(i).toString(), bound);
+            return bound;
+        }
+    }
+}
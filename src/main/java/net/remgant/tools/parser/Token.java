@@ -18,16 +18,21 @@ package net.remgant.tools.parser;
 
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapMaker;
 
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.lang.reflect.Field;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -63,26 +68,81 @@ public abstract class Token {
 
     public static final Predicate<Token> MATCH_ANY = (t) -> true;
 
-    protected static Map<Predicate<Token>, String> tokenMap = new HashMap<>();
+    // names of predicates for printing, weakly keyed so predicates of grammars that are no longer
+    // used don't stay reachable, and concurrent since grammars are built on any thread
+    protected static final Map<Predicate<Token>, String> tokenMap = new MapMaker().weakKeys().makeMap();
 
     static {
         tokenMap.put(MATCH_ANY, "MATCH_ANY");
     }
 
+    // Kinds a lexer assigns to the tokens it produces. A finder numbers its canonical tokens
+    // from FIRST_VOCABULARY_KIND up, and a token's kind only means something to its finder.
+    static final int UNKNOWN_KIND = 0;
+    static final int OTHER_KIND = 1;
+    static final int IDENTIFIER_KIND = 2;
+    static final int INTEGER_KIND = 3;
+    static final int DECIMAL_KIND = 4;
+    static final int CHAR_STRING_KIND = 5;
+    static final int FIRST_VOCABULARY_KIND = 6;
+
+    // null until first asked for when the token is a span of the source
     String value;
+    private CharSequence source;
+    private int start;
+    private int end;
     Predicate<Token> predicate;
+    // the finder a canonical or lexed token came from, null for any other token
+    TokenFinder finder;
+    int kind = UNKNOWN_KIND;
 
     public String getValue() {
-        return value;
+        String v = value;
+        if (v == null && source != null)
+            value = v = source.subSequence(start, end).toString();
+        return v;
+    }
+
+    /**
+     * @return the text of this token without copying it out of the source it was lexed from
+     */
+    public CharSequence getText() {
+        String v = value;
+        if (v == null && source != null)
+            return CharBuffer.wrap(source, start, end);
+        return v;
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    boolean isLiteral() {
+        return isLiteralKind(kind);
+    }
+
+    static boolean isLiteralKind(int kind) {
+        return kind == INTEGER_KIND || kind == DECIMAL_KIND || kind == CHAR_STRING_KIND;
     }
 
     public Predicate<Token> getPredicate() {
+        if (predicate == null && getValue() != null)
+            predicate = new ValuePredicate(value);
         return predicate;
     }
 
     Token(String v) {
         this.value = v;
-        this.predicate = t -> t.getValue().equalsIgnoreCase(v);
+    }
+
+    /*
+     * A token for the characters start to end of source, which must not change while the token
+     * is in use.
+     */
+    Token(CharSequence source, int start, int end) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
     }
 
     protected Token() {
@@ -94,9 +154,55 @@ public abstract class Token {
         this.predicate = predicate;
     }
 
+    /*
+     * Same as getValue().equalsIgnoreCase(s), but a span is compared in place.
+     */
+    boolean valueEqualsIgnoreCase(String s) {
+        if (value != null || source == null)
+            return getValue().equalsIgnoreCase(s);
+        int length = end - start;
+        if (length != s.length())
+            return false;
+        for (int i = 0; i < length; i++) {
+            char c1 = source.charAt(start + i);
+            char c2 = s.charAt(i);
+            if (c1 == c2)
+                continue;
+            char u1 = Character.toUpperCase(c1);
+            char u2 = Character.toUpperCase(c2);
+            if (u1 != u2 && Character.toLowerCase(u1) != Character.toLowerCase(u2))
+                return false;
+        }
+        return true;
+    }
+
+    /*
+     * Tests the text of this token in place, without copying a span out of the source.
+     */
+    boolean textMatches(Recognizer recognizer) {
+        String v = value;
+        if (v != null || source == null)
+            return recognizer.test(v, 0, v.length());
+        return recognizer.test(source, start, end);
+    }
+
+    /*
+     * True if the value of this token, ignoring case, is in table, comparing a span in place.
+     */
+    boolean valueIn(KeywordTable<?> table) {
+        String v = value;
+        if (v != null || source == null)
+            return table.get(v, 0, v.length()) != null;
+        return table.get(source, start, end) != null;
+    }
+
+    boolean matchesByValue() {
+        return getPredicate() instanceof ValuePredicate;
+    }
+
     @Override
     public String toString() {
-        return value;
+        return getValue();
     }
 
     @Override
@@ -104,12 +210,25 @@ public abstract class Token {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Token token = (Token) o;
-        return Objects.equal(value, token.value);
+        return Objects.equal(getValue(), token.getValue());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(value);
+        return Objects.hashCode(getValue());
+    }
+
+    static class ValuePredicate implements Predicate<Token> {
+        final String value;
+
+        ValuePredicate(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean test(Token t) {
+            return t.valueEqualsIgnoreCase(value);
+        }
     }
 
     public static class Keyword extends Token {
@@ -138,9 +257,8 @@ public abstract class Token {
 
 
     public static class Identifier extends Token {
-        private static final Pattern instancePattern = Pattern.compile("\\p{Alpha}\\w*");
-        public static final Predicate<Token> INSTANCE = (t) -> instancePattern.matcher(t.value).matches();
-        public static final Identifier INSTANCE_ = new Identifier("Identifier.INSTANCE", (t) -> instancePattern.matcher(t.value).matches());
+        public static final Predicate<Token> INSTANCE = (t) -> t.textMatches(Recognizer.IDENTIFIER);
+        public static final Identifier INSTANCE_ = new Identifier("Identifier.INSTANCE", (t) -> t.textMatches(Recognizer.IDENTIFIER));
 
         static {
             tokenMap.put(INSTANCE, "Identifier.INSTANCE");
@@ -154,10 +272,15 @@ public abstract class Token {
             super(v);
         }
 
+        Identifier(CharSequence source, int start, int end) {
+            super(source, start, end);
+        }
+
         public String toString() {
-            if (value == null)
+            String v = getValue();
+            if (v == null)
                 return "Identifier";
-            return value;
+            return v;
         }
 
         @Override
@@ -168,8 +291,7 @@ public abstract class Token {
     }
 
     public static class CharString extends Token {
-        private final static Pattern instancePattern = Pattern.compile("((?<![\\\\])[\'\"])((?:.(?!(?<![\\\\])\\1))*.?)\\1");
-        public final static Predicate<Token> INSTANCE = (t) -> instancePattern.matcher(t.value).matches();
+        public final static Predicate<Token> INSTANCE = (t) -> t.textMatches(Recognizer.CHAR_STRING);
         public final static Token INSTANCE_ = new CharString("CharString.INSTNANCE", INSTANCE);
 
         static {
@@ -184,6 +306,10 @@ public abstract class Token {
             super(v);
         }
 
+        CharString(CharSequence source, int start, int end) {
+            super(source, start, end);
+        }
+
         public CharString() {
         }
 
@@ -196,7 +322,7 @@ public abstract class Token {
 
     public static class BooleanString extends Token {
         final public static Pattern instancePattern = Pattern.compile("true|false");
-        final public static Predicate<Token> INSTANCE = (t) -> instancePattern.matcher(t.value).matches();
+        final public static Predicate<Token> INSTANCE = (t) -> instancePattern.matcher(t.getText()).matches();
         final public static Token INSTANCE_ = new BooleanString("BooleanString.INSTANCE", INSTANCE);
 
         private BooleanString(String v, Predicate<Token> predicate) {
@@ -209,10 +335,8 @@ public abstract class Token {
     }
 
     public static class NumericString extends Token {
-        final private static Pattern instancePattern = Pattern.compile("\\p{Digit}+(?:\\.\\p{Digit}+)?");
-        final private static Pattern anyIntegerPattern = Pattern.compile("\\p{Digit}+");
-        final public static Predicate<Token> INSTANCE = (t) -> instancePattern.matcher(t.value).matches();
-        final public static Predicate<Token> ANY_INTEGER = (t) -> anyIntegerPattern.matcher(t.value).matches();
+        final public static Predicate<Token> INSTANCE = (t) -> t.textMatches(Recognizer.NUMBER);
+        final public static Predicate<Token> ANY_INTEGER = (t) -> t.textMatches(Recognizer.INTEGER);
         final public static Token INSTANCE_ = new NumericString("NumnericString.INSTANCE", INSTANCE);
 
         static {
@@ -228,6 +352,10 @@ public abstract class Token {
             super(v);
         }
 
+        NumericString(CharSequence source, int start, int end) {
+            super(source, start, end);
+        }
+
         public NumericString() {
         }
 
@@ -243,7 +371,7 @@ public abstract class Token {
 
         static public Predicate<Token> of(String s) {
             Pattern p = Pattern.compile(s);
-            Predicate<Token> predicate = (t) -> p.matcher(t.value).matches();
+            Predicate<Token> predicate = (t) -> p.matcher(t.getText()).matches();
             tokenMap.put(predicate, "Regex: " + s);
             return predicate;
         }
@@ -263,32 +391,160 @@ public abstract class Token {
         Set<String> keywordSet;
         Set<String> charSet;
         Set<String> operatorSet;
+        Map<String, Token> keywords = new HashMap<>();
+        Map<String, Token> operators = new HashMap<>();
+        Map<String, Token> chars = new HashMap<>();
+        // all canonical tokens by value ignoring case, null where two of them have the same value
+        private final Map<String, Token> canonicalTokens = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        // canonical tokens by kind, starting at FIRST_VOCABULARY_KIND
+        final List<Token> vocabulary = new ArrayList<>();
+        LexicalAutomaton automaton;
+        // the keywords again, for lexemes the automaton leaves to classify
+        private final KeywordTable<Token> keywordTable;
 
         protected TokenFinder() {
-            this.keywordSet = ImmutableSet.of();
-            this.charSet = ImmutableSet.of();
-            this.operatorSet = ImmutableSet.of();
+            this(ImmutableSet.of(), ImmutableSet.of(), ImmutableSet.of());
         }
 
         protected TokenFinder(Set<String> keywordSet, Set<String> charSet, Set<String> operatorSet) {
             this.keywordSet = keywordSet;
             this.charSet = charSet;
             this.operatorSet = operatorSet;
+            // keywords are looked up by the upper case lexeme, so only upper case ones can be found
+            for (String s : keywordSet)
+                if (s.equals(s.toUpperCase()))
+                    keywords.put(s, canonical(new Keyword(s)));
+            for (String s : operatorSet)
+                operators.put(s, canonical(new Operator(s.toUpperCase())));
+            for (String s : charSet)
+                if (!operatorSet.contains(s))
+                    chars.put(s, canonical(new Char(s.toUpperCase())));
+            this.automaton = LexicalAutomaton.compile(keywords, operators, chars);
+            this.keywordTable = new KeywordTable<>(keywords);
+        }
+
+        private Token canonical(Token token) {
+            token.finder = this;
+            token.kind = FIRST_VOCABULARY_KIND + vocabulary.size();
+            token.getPredicate();
+            vocabulary.add(token);
+            if (canonicalTokens.containsKey(token.value))
+                canonicalTokens.put(token.value, null);
+            else
+                canonicalTokens.put(token.value, token);
+            return token;
+        }
+
+        /*
+         * True when whether a token from this finder matches the given value can be decided by
+         * comparing it to canonicalToken(value) by identity.
+         */
+        boolean matchesByIdentity(String value) {
+            return !canonicalTokens.containsKey(value) || canonicalTokens.get(value) != null;
+        }
+
+        Token canonicalToken(String value) {
+            return canonicalTokens.get(value);
+        }
+
+        boolean isKeyword(String value) {
+            return keywordTable.get(value, 0, value.length()) != null;
+        }
+
+        int kindCount() {
+            return FIRST_VOCABULARY_KIND + vocabulary.size();
+        }
+
+        Token tokenOfKind(int kind) {
+            return vocabulary.get(kind - FIRST_VOCABULARY_KIND);
         }
 
         public Token findToken(String s) {
-            if (keywordSet.contains(s.toUpperCase()))
-                return new Token.Keyword(s.toUpperCase());
-            if (operatorSet.contains(s))
-                return new Token.Operator(s.toUpperCase());
-            if (charSet.contains(s))
-                return new Token.Char(s.toUpperCase());
-            if (NumericString.instancePattern.matcher(s).matches())
-                return new NumericString(s);
-            if (s.length() >= 2 && (s.charAt(0) == '\'' && s.charAt(s.length() - 1) == '\'' ||
-                    s.charAt(0) == '\"' && s.charAt(s.length() - 1) == '\"'))
-                return new CharString(s);
-            return new Identifier(s);
+            return findToken(automaton.run(s), s);
+        }
+
+        /*
+         * Builds the token for the lexeme start to end of source the automaton has already been
+         * run over, keeping it a span of the source unless it takes the string to classify it.
+         */
+        Token findToken(int state, CharSequence source, int start, int end) {
+            Token token = automaton.token(state);
+            if (token != null)
+                return token;
+            int kind = automaton.kind(state);
+            switch (kind) {
+                case INTEGER_KIND:
+                case DECIMAL_KIND:
+                    token = new NumericString(source, start, end);
+                    break;
+                case CHAR_STRING_KIND:
+                    token = new CharString(source, start, end);
+                    break;
+                case IDENTIFIER_KIND:
+                case OTHER_KIND:
+                    token = new Identifier(source, start, end);
+                    break;
+                default:
+                    token = keywordTable.get(source, start, end);
+                    return token != null ? token : classifyOther(source.subSequence(start, end).toString());
+            }
+            token.kind = kind;
+            token.finder = this;
+            return token;
+        }
+
+        /*
+         * Builds the token for a lexeme the automaton has already been run over.
+         */
+        Token findToken(int state, String s) {
+            Token token = automaton.token(state);
+            if (token != null)
+                return token;
+            int kind = automaton.kind(state);
+            switch (kind) {
+                case INTEGER_KIND:
+                case DECIMAL_KIND:
+                    token = new NumericString(s);
+                    break;
+                case CHAR_STRING_KIND:
+                    token = new CharString(s);
+                    break;
+                case IDENTIFIER_KIND:
+                case OTHER_KIND:
+                    token = new Identifier(s);
+                    break;
+                default:
+                    return classify(s);
+            }
+            token.kind = kind;
+            token.finder = this;
+            return token;
+        }
+
+        private Token classify(String s) {
+            Token token = keywordTable.get(s, 0, s.length());
+            return token != null ? token : classifyOther(s);
+        }
+
+        private Token classifyOther(String s) {
+            Token token = operators.get(s);
+            if (token == null)
+                token = chars.get(s);
+            if (token != null)
+                return token;
+            if (Recognizer.NUMBER.test(s, 0, s.length())) {
+                token = new NumericString(s);
+                token.kind = Recognizer.INTEGER.test(s, 0, s.length()) ? INTEGER_KIND : DECIMAL_KIND;
+            } else if (s.length() >= 2 && (s.charAt(0) == '\'' && s.charAt(s.length() - 1) == '\'' ||
+                    s.charAt(0) == '\"' && s.charAt(s.length() - 1) == '\"')) {
+                token = new CharString(s);
+                token.kind = CHAR_STRING_KIND;
+            } else {
+                token = new Identifier(s);
+                token.kind = Recognizer.IDENTIFIER.test(s, 0, s.length()) ? IDENTIFIER_KIND : OTHER_KIND;
+            }
+            token.finder = this;
+            return token;
         }
     }
 
@@ -302,7 +558,7 @@ public abstract class Token {
             return new Token.Operator(s.toUpperCase());
         if (Char.set.contains(s))
             return new Token.Char(s.toUpperCase());
-        if (NumericString.instancePattern.matcher(s).matches())
+        if (Recognizer.NUMBER.test(s, 0, s.length()))
             return new NumericString(s);
         if (s.length() >= 2 && (s.charAt(0) == '\'' && s.charAt(s.length() - 1) == '\'' ||
                 s.charAt(0) == '\"' && s.charAt(s.length() - 1) == '\"'))
@@ -313,23 +569,23 @@ public abstract class Token {
     static public class TokenSet implements Predicate<Token> {
         Token[] tokens;
         Predicate<Token>[] predicates;
+        private final TokenMatcher matcher;
 
         public TokenSet(Predicate<Token>[] predicates) {
             this.predicates = predicates;
+            this.matcher = TokenMatcher.of(Arrays.asList(predicates));
         }
 
         public TokenSet(Token[] tokens) {
             this.tokens = tokens;
             //noinspection unchecked
             this.predicates = Arrays.stream(tokens).map(Token::getPredicate).toArray(Predicate[]::new);
+            this.matcher = TokenMatcher.of(Arrays.asList(predicates));
         }
 
         @Override
         public boolean test(Token token) {
-            for (Predicate<Token> p : predicates)
-                if (p.test(token))
-                    return true;
-            return false;
+            return matcher.test(token);
         }
 
         public String toString() {
@@ -0,0 +1,192 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import java.util.Arrays;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The tokens of a source held as columns of ints: each token's kind, where it starts and ends in
+ * the source and the lexical state it ended in. A {@link Token} object is only made when one is
+ * asked for, and keywords, operators and chars are shared ones, so a buffer of a large input takes
+ * a fraction of the memory of a list of tokens. Make one with {@link Lexer#tokenBuffer(CharSequence)}.
+ * <p>
+ * This is a way of storing tokens, not of parsing without them: iterating over a buffer, as a
+ * parser does, makes a new token for each identifier, number and string every time it's reached.
+ */
+public final class TokenBuffer {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final CharSequence source;
+    private final Token.TokenFinder finder;
+    private int size;
+    private int[] kinds;
+    private int[] starts;
+    private int[] ends;
+    private int[] states;
+
+    TokenBuffer(CharSequence source, Token.TokenFinder finder) {
+        this.source = source;
+        this.finder = finder;
+        this.kinds = new int[INITIAL_CAPACITY];
+        this.starts = new int[INITIAL_CAPACITY];
+        this.ends = new int[INITIAL_CAPACITY];
+        this.states = new int[INITIAL_CAPACITY];
+    }
+
+    void add(int state, int start, int end) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            states = Arrays.copyOf(states, capacity);
+        }
+        int kind = finder.automaton.kind(state);
+        // only lexemes with characters the automaton doesn't cover have to be classified
+        if (kind == Token.UNKNOWN_KIND)
+            kind = finder.findToken(state, source, start, end).kind;
+        kinds[size] = kind;
+        starts[size] = start;
+        ends[size] = end;
+        states[size] = state;
+        size++;
+    }
+
+    CharSequence source() {
+        return source;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the kind {@link Token#getKind()} returns for the token
+     */
+    public int getKind(int index) {
+        return kinds[checkIndex(index)];
+    }
+
+    public int getStart(int index) {
+        return starts[checkIndex(index)];
+    }
+
+    public int getEnd(int index) {
+        return ends[checkIndex(index)];
+    }
+
+    /**
+     * @return the text of the token, as a view of the source where the source allows it
+     */
+    public CharSequence getText(int index) {
+        checkIndex(index);
+        return source.subSequence(starts[index], ends[index]);
+    }
+
+    public Token getToken(int index) {
+        checkIndex(index);
+        Token token = finder.automaton.token(states[index]);
+        if (token != null)
+            return token;
+        return finder.findToken(states[index], source, starts[index], ends[index]);
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        return index;
+    }
+
+    /**
+     * @return the tokens from the first, each made again every time it is reached
+     */
+    public ListIterator<Token> listIterator() {
+        return new Iterator();
+    }
+
+    /**
+     * @return a source of the tokens from the first, each made as it is reached
+     */
+    public TokenSource tokenSource() {
+        return new TokenSource() {
+            private int next;
+
+            @Override
+            protected Token readToken() {
+                if (next == size)
+                    return null;
+                readOffset = starts[next];
+                return getToken(next++);
+            }
+        };
+    }
+
+    private class Iterator implements ListIterator<Token> {
+        private int next;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Token next() {
+            if (next >= size)
+                throw new NoSuchElementException();
+            return getToken(next++);
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return next > 0;
+        }
+
+        @Override
+        public Token previous() {
+            if (next <= 0)
+                throw new NoSuchElementException();
+            return getToken(--next);
+        }
+
+        @Override
+        public int nextIndex() {
+            return next;
+        }
+
+        @Override
+        public int previousIndex() {
+            return next - 1;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void set(Token token) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(Token token) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A set of token predicates compiled for membership tests. Predicates that match a value ignoring
+ * case, such as those of tokens declared with a value, go into one hash table that's looked up by
+ * the token's text in place; any other predicate is tested in turn after it. Nested
+ * {@link Token.TokenSet}s are flattened.
+ */
+final class TokenMatcher implements Predicate<Token> {
+    private final boolean matchAny;
+    // null when none of the predicates match by value
+    private final KeywordTable<String> values;
+    private final Predicate<Token>[] others;
+
+    private TokenMatcher(boolean matchAny, KeywordTable<String> values, Predicate<Token>[] others) {
+        this.matchAny = matchAny;
+        this.values = values;
+        this.others = others;
+    }
+
+    static TokenMatcher of(Iterable<? extends Predicate<Token>> predicates) {
+        Map<String, String> values = new HashMap<>();
+        List<Predicate<Token>> others = new ArrayList<>();
+        boolean matchAny = false;
+        for (Predicate<Token> predicate : predicates)
+            matchAny |= add(predicate, values, others);
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        Predicate<Token>[] array = others.toArray(new Predicate[0]);
+        return new TokenMatcher(matchAny, values.isEmpty() ? null : new KeywordTable<>(values), array);
+    }
+
+    // true if predicate is MATCH_ANY or a set containing it
+    private static boolean add(Predicate<Token> predicate, Map<String, String> values, List<Predicate<Token>> others) {
+        if (predicate == Token.MATCH_ANY)
+            return true;
+        if (predicate instanceof Token.ValuePredicate) {
+            String value = ((Token.ValuePredicate) predicate).value;
+            values.put(value, value);
+            return false;
+        }
+        if (predicate instanceof Token.TokenSet) {
+            boolean matchAny = false;
+            for (Predicate<Token> member : ((Token.TokenSet) predicate).predicates)
+                matchAny |= add(member, values, others);
+            return matchAny;
+        }
+        others.add(predicate);
+        return false;
+    }
+
+    @Override
+    public boolean test(Token token) {
+        if (matchAny || values != null && token.valueIn(values))
+            return true;
+        for (Predicate<Token> predicate : others)
+            if (predicate.test(token))
+                return true;
+        return false;
+    }
+}
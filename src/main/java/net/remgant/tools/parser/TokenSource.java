@@ -0,0 +1,161 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A lazily lexed sequence of tokens. Tokens are only read from the underlying source when
+ * they are asked for, so nothing but the current token and one token of lookahead is held
+ * in memory.
+ * <p>
+ * Implements {@link ListIterator} with a one token window: {@link #previous()} pushes back the
+ * most recently returned token and can't be called twice in a row.
+ */
+public abstract class TokenSource implements ListIterator<Token> {
+    private Token current;
+    private Token pushedBack;
+    private Token lookahead;
+    private boolean exhausted;
+    private int index;
+    private int currentOffset = -1;
+    private int pushedBackOffset = -1;
+    private int lookaheadOffset = -1;
+    // set by readToken() to where the token it returns starts, if it knows
+    int readOffset = -1;
+    // set when lexing is being timed
+    LexerMetrics metrics;
+    boolean timed;
+    long lexNanos;
+
+    /**
+     * @return the next token from the source, or null when there are no more
+     */
+    protected abstract Token readToken();
+
+    @Override
+    public boolean hasNext() {
+        if (pushedBack != null || lookahead != null)
+            return true;
+        if (exhausted)
+            return false;
+        lookahead = metrics == null && !timed ? readToken() : timedReadToken();
+        lookaheadOffset = readOffset;
+        if (lookahead == null)
+            exhausted = true;
+        return lookahead != null;
+    }
+
+    private Token timedReadToken() {
+        long start = System.nanoTime();
+        Token token = readToken();
+        long nanos = System.nanoTime() - start;
+        lexNanos += nanos;
+        if (metrics != null) {
+            if (token != null)
+                metrics.tokenRead(nanos);
+            else
+                metrics.sourceFinished(lexNanos);
+        }
+        return token;
+    }
+
+    @Override
+    public Token next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        if (pushedBack != null) {
+            current = pushedBack;
+            currentOffset = pushedBackOffset;
+            pushedBack = null;
+        } else {
+            current = lookahead;
+            currentOffset = lookaheadOffset;
+            lookahead = null;
+        }
+        index++;
+        return current;
+    }
+
+    /**
+     * @return the token the next call to {@link #next()} will return, or null at the end of the source
+     */
+    public Token peek() {
+        if (!hasNext())
+            return null;
+        return pushedBack != null ? pushedBack : lookahead;
+    }
+
+    /**
+     * @return where the token last returned by {@link #next()} starts in the source, or -1 if the
+     * source doesn't keep track
+     */
+    public int getOffset() {
+        return currentOffset;
+    }
+
+    @Override
+    public boolean hasPrevious() {
+        return current != null;
+    }
+
+    @Override
+    public Token previous() {
+        if (current == null)
+            throw new NoSuchElementException();
+        pushedBack = current;
+        pushedBackOffset = currentOffset;
+        current = null;
+        index--;
+        return pushedBack;
+    }
+
+    @Override
+    public int nextIndex() {
+        return index;
+    }
+
+    @Override
+    public int previousIndex() {
+        return index - 1;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void set(Token token) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void add(Token token) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Stream<Token> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+}
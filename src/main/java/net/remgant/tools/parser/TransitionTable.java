@@ -0,0 +1,278 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Predicate;
+
+/**
+ * A parser's transitions compiled against one token finder into a state &times; token kind table.
+ * For each kind the table holds the index of the transition every token of that kind takes, or
+ * {@link #NO_MATCH}. Where that depends on more than the kind (a predicate the table knows nothing
+ * about, or a value that only some tokens of the kind have) the entry refers to a {@link Scan}
+ * of just the transitions that tokens of the kind can match.
+ */
+final class TransitionTable {
+    static final int NO_MATCH = -1;
+
+    private static final int NEVER = 0;
+    private static final int ALWAYS = 1;
+    private static final int MAYBE = 2;
+
+    final Token.TokenFinder finder;
+    private final int[][] rows;
+    private final Scan[] scans;
+
+    TransitionTable(List<List<Parser.State>> stateList, Token.TokenFinder finder) {
+        this.finder = finder;
+        this.rows = new int[stateList.size()][];
+        List<Scan> scans = new ArrayList<>();
+        int kindCount = finder.kindCount();
+        for (int state = 0; state < stateList.size(); state++) {
+            List<Parser.State> transitions = stateList.get(state);
+            if (transitions == null)
+                continue;
+            // kinds that need the same transitions tested share a scan
+            Map<List<Integer>, Integer> stateScans = new HashMap<>();
+            int[] row = new int[kindCount];
+            for (int kind = Token.UNKNOWN_KIND; kind < kindCount; kind++) {
+                List<Integer> candidates = new ArrayList<>();
+                for (int i = 0; i < transitions.size(); i++) {
+                    Predicate<Token> predicate = transitions.get(i).predicate;
+                    int outcome = kind == Token.UNKNOWN_KIND ? predicate == Token.MATCH_ANY ? ALWAYS : MAYBE
+                            : outcome(predicate, kind);
+                    if (outcome == NEVER)
+                        continue;
+                    candidates.add(i);
+                    if (outcome == ALWAYS)
+                        break;
+                }
+                if (candidates.isEmpty()) {
+                    row[kind] = NO_MATCH;
+                } else if (candidates.size() == 1 && kind != Token.UNKNOWN_KIND
+                        && outcome(transitions.get(candidates.get(0)).predicate, kind) == ALWAYS) {
+                    row[kind] = candidates.get(0);
+                } else {
+                    Integer id = stateScans.get(candidates);
+                    if (id == null) {
+                        id = scans.size();
+                        scans.add(new Scan(transitions, candidates));
+                        stateScans.put(candidates, id);
+                    }
+                    row[kind] = scanEntry(id);
+                }
+            }
+            rows[state] = row;
+        }
+        this.scans = scans.toArray(new Scan[0]);
+    }
+
+    private static int scanEntry(int id) {
+        return -id - 2;
+    }
+
+    /**
+     * @return the index of the transition to take, NO_MATCH, or an entry below NO_MATCH for the
+     * {@link #scan(int)} that decides it
+     */
+    int lookup(int state, Token token) {
+        int kind = token.finder == finder ? token.kind : Token.UNKNOWN_KIND;
+        return rows[state][kind];
+    }
+
+    /**
+     * @return the same as {@link #lookup(int, Token)} for a token of {@code kind} lexed with this
+     * table's finder
+     */
+    int lookupKind(int state, int kind) {
+        return rows[state][kind];
+    }
+
+    Scan scan(int entry) {
+        return scans[-entry - 2];
+    }
+
+    /**
+     * The transitions of a state whose predicates have to be tested, in the order to test them.
+     * At first that is the order they were added. When the parser records which ones match, every
+     * {@link #REORDER_INTERVAL} matches the most frequent ones are moved to the front, but a
+     * transition is only ever moved ahead of one it can't match the same token as, so the first
+     * one that matches is always the one the declared order would have picked.
+     */
+    static final class Scan {
+        static final int REORDER_INTERVAL = 1024;
+
+        private final int[] transitions;
+        private final boolean[][] disjoint;
+        private final AtomicIntegerArray hits;
+        private final AtomicInteger matches = new AtomicInteger();
+        private volatile int[] order;
+
+        private Scan(List<Parser.State> states, List<Integer> candidates) {
+            int n = candidates.size();
+            this.transitions = new int[n];
+            this.disjoint = new boolean[n][n];
+            for (int a = 0; a < n; a++) {
+                transitions[a] = candidates.get(a);
+                for (int b = 0; b < n; b++)
+                    disjoint[a][b] = disjoint(states.get(candidates.get(a)).predicate,
+                            states.get(candidates.get(b)).predicate);
+            }
+            this.hits = new AtomicIntegerArray(n);
+            this.order = transitions.clone();
+        }
+
+        /**
+         * @return the indexes of the transitions to test, in order
+         */
+        int[] order() {
+            return order;
+        }
+
+        void recordMatch(int transition) {
+            for (int a = 0; a < transitions.length; a++) {
+                if (transitions[a] == transition) {
+                    hits.incrementAndGet(a);
+                    break;
+                }
+            }
+            if (matches.incrementAndGet() % REORDER_INTERVAL == 0)
+                reorder();
+        }
+
+        private synchronized void reorder() {
+            // counts still being added to; they only steer the order, which is correct whatever they say
+            int[] counts = new int[transitions.length];
+            for (int a = 0; a < counts.length; a++)
+                counts[a] = hits.get(a);
+            int[] positions = new int[transitions.length];
+            for (int a = 0; a < positions.length; a++) {
+                int b = a;
+                while (b > 0 && counts[a] > counts[positions[b - 1]] && disjoint[a][positions[b - 1]]) {
+                    positions[b] = positions[b - 1];
+                    b--;
+                }
+                positions[b] = a;
+            }
+            int[] newOrder = new int[positions.length];
+            for (int a = 0; a < positions.length; a++)
+                newOrder[a] = transitions[positions[a]];
+            order = newOrder;
+        }
+    }
+
+    /*
+     * Whether no token can match both predicates: only known for values, compared the way
+     * ValuePredicate does for ASCII values.
+     */
+    private static boolean disjoint(Predicate<Token> p, Predicate<Token> q) {
+        if (p instanceof Token.TokenSet) {
+            for (Predicate<Token> member : ((Token.TokenSet) p).predicates)
+                if (!disjoint(member, q))
+                    return false;
+            return true;
+        }
+        if (q instanceof Token.TokenSet)
+            return disjoint(q, p);
+        if (!(p instanceof Token.ValuePredicate) || !(q instanceof Token.ValuePredicate))
+            return false;
+        String a = ((Token.ValuePredicate) p).value;
+        String b = ((Token.ValuePredicate) q).value;
+        return isAscii(a) && isAscii(b) && !a.equalsIgnoreCase(b);
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++)
+            if (s.charAt(i) >= 128)
+                return false;
+        return true;
+    }
+
+    private int outcome(Predicate<Token> predicate, int kind) {
+        if (predicate == Token.MATCH_ANY)
+            return ALWAYS;
+        if (predicate instanceof Token.TokenSet) {
+            int outcome = NEVER;
+            for (Predicate<Token> p : ((Token.TokenSet) predicate).predicates) {
+                int o = outcome(p, kind);
+                if (o == ALWAYS)
+                    return ALWAYS;
+                if (o == MAYBE)
+                    outcome = MAYBE;
+            }
+            return outcome;
+        }
+        if (!isKnown(predicate))
+            return MAYBE;
+        if (kind >= Token.FIRST_VOCABULARY_KIND)
+            return predicate.test(finder.tokenOfKind(kind)) ? ALWAYS : NEVER;
+        if (predicate == Token.Identifier.INSTANCE || predicate == Token.Identifier.INSTANCE_.getPredicate())
+            return kind == Token.IDENTIFIER_KIND ? ALWAYS : NEVER;
+        if (predicate == Token.NumericString.INSTANCE)
+            return kind == Token.INTEGER_KIND || kind == Token.DECIMAL_KIND ? ALWAYS : NEVER;
+        if (predicate == Token.NumericString.ANY_INTEGER)
+            return kind == Token.INTEGER_KIND ? ALWAYS : NEVER;
+        if (predicate == Token.CharString.INSTANCE)
+            return kind == Token.CHAR_STRING_KIND ? MAYBE : NEVER;
+        if (predicate == Token.BooleanString.INSTANCE)
+            return kind == Token.IDENTIFIER_KIND ? MAYBE : NEVER;
+        return valueOutcome(((Token.ValuePredicate) predicate).value, kind);
+    }
+
+    private static boolean isKnown(Predicate<Token> predicate) {
+        return predicate instanceof Token.ValuePredicate
+                || predicate == Token.Identifier.INSTANCE
+                || predicate == Token.Identifier.INSTANCE_.getPredicate()
+                || predicate == Token.NumericString.INSTANCE
+                || predicate == Token.NumericString.ANY_INTEGER
+                || predicate == Token.CharString.INSTANCE
+                || predicate == Token.BooleanString.INSTANCE;
+    }
+
+    /*
+     * Whether a token of a lexed class kind can equal value ignoring case. Tokens of the integer,
+     * decimal and identifier kinds are always ASCII, so for an ASCII value the question is just
+     * whether value has the same shape; an identifier can never equal a keyword since the lexer
+     * would have returned the keyword.
+     */
+    private int valueOutcome(String value, int kind) {
+        if (!isAscii(value))
+            return MAYBE;
+        switch (kind) {
+            case Token.INTEGER_KIND:
+                return Token.NumericString.ANY_INTEGER.test(new Token.NumericString(value)) ? MAYBE : NEVER;
+            case Token.DECIMAL_KIND:
+                return value.indexOf('.') >= 0 && Token.NumericString.INSTANCE.test(new Token.NumericString(value)) ? MAYBE : NEVER;
+            case Token.IDENTIFIER_KIND:
+                if (!Token.Identifier.INSTANCE.test(new Token.Identifier(value)) || finder.isKeyword(value))
+                    return NEVER;
+                return MAYBE;
+            case Token.CHAR_STRING_KIND:
+                if (value.length() < 2 || value.charAt(0) != value.charAt(value.length() - 1)
+                        || value.charAt(0) != '\'' && value.charAt(0) != '"')
+                    return NEVER;
+                return MAYBE;
+            default:
+                return MAYBE;
+        }
+    }
+}
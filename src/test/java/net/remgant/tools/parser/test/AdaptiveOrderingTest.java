@@ -0,0 +1,132 @@
+/*
+   Copyright 2019 Jeffrey D. Remillard
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+package net.remgant.tools.parser.test;
+
+import net.remgant.tools.parser.ParseListener;
+import net.remgant.tools.parser.Parser;
+import net.remgant.tools.parser.ParserException;
+import net.remgant.tools.parser.ParserResult;
+import net.remgant.tools.parser.Token;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveOrderingTest {
+    static class Words extends ParserResult {
+        final List<String> words = new ArrayList<>();
+    }
+
+    static class WordParser extends Parser {
+        @Override
+        protected void init() {
+            addState(0, new Token.Identifier("foo"), 0, (s, c) -> add(c, "foo:" + s));
+            addState(0, new Token.Identifier("bar"), 0, (s, c) -> add(c, "bar:" + s));
+            addState(0, new Token.Identifier("baz"), 0, (s, c) -> add(c, "baz:" + s));
+            addState(0, Token.Identifier.INSTANCE_, 0, (s, c) -> add(c, "identifier:" + s));
+            addState(0, Token.MATCH_ANY, 0, (s, c) -> add(c, "any:" + s));
+        }
+
+        @Override
+        protected ParserResult resultInitializer() {
+            return new Words();
+        }
+
+        private static ParserResult add(ParserResult c, String word) {
+            ((Words) c).words.add(word);
+            return c;
+        }
+    }
+
+    @Test
+    public void testSameResultsWhenReordered() throws ParserException {
+        String[] words = {"baz", "baz", "baz", "BAZ", "bar", "foo", "qux", "12"};
+        Random random = new Random(1);
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            source.append(words[random.nextInt(words.length)]).append(' ');
+
+        WordParser parser = new WordParser();
+        List<String> expected = ((Words) parser.parse(source.toString())).words;
+        parser.setAdaptiveOrdering(true);
+        for (int i = 0; i < 3; i++)
+            assertEquals(expected, ((Words) parser.parse(source.toString())).words);
+        assertTrue(expected.contains("baz:BAZ"));
+        assertTrue(expected.contains("identifier:qux"));
+        assertTrue(expected.contains("any:12"));
+    }
+
+    // counts the characters read from it, which for tokens lexed from it includes comparing them to values
+    static class CountingSequence implements CharSequence {
+        private final String s;
+        int reads;
+
+        CountingSequence(String s) {
+            this.s = s;
+        }
+
+        @Override
+        public int length() {
+            return s.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            reads++;
+            return s.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return s.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return s;
+        }
+    }
+
+    @Test
+    public void testMatchingTransitionsTestedFirst() throws ParserException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 4096; i++)
+            builder.append("baz ");
+        String source = builder.toString();
+
+        // a listener that doesn't look at the tokens, so comparing them isn't left to the copies logging makes
+        WordParser reordered = new WordParser();
+        reordered.setParseListener(new ParseListener() {
+        });
+        reordered.setAdaptiveOrdering(true);
+        reordered.parse(source);
+        CountingSequence counted = new CountingSequence(source);
+        reordered.parse(reordered.getLexer().tokenBuffer(counted));
+        int reorderedReads = counted.reads;
+
+        WordParser declared = new WordParser();
+        declared.setParseListener(reordered.getParseListener());
+        counted = new CountingSequence(source);
+        declared.parse(declared.getLexer().tokenBuffer(counted));
+        // baz is compared to foo and bar before it in the declared order
+        assertTrue(reorderedReads + 4096 * 4 <= counted.reads);
+    }
+}
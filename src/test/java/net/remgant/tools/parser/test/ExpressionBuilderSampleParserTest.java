@@ -4,6 +4,9 @@ import net.remgant.tools.parser.ParserException;
 import net.remgant.tools.parser.ParserResult;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.Reader;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -51,4 +54,29 @@ public class ExpressionBuilderSampleParserTest {
         assertEquals("a", assignmentStatement.getTarget());
         assertEquals("b c d + +", assignmentStatement.getNode().toString());
     }
+
+    @Test
+    public void testStopsLexingAtTerminalState() throws ParserException {
+        ExpressionBuilderSampleParser parser = new ExpressionBuilderSampleParser();
+        Reader reader = new Reader() {
+            private final String text = "a = b + c; ";
+            private int pos;
+
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                if (pos >= text.length())
+                    throw new IOException("read past the end of the statement");
+                cbuf[off] = text.charAt(pos++);
+                return 1;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ParserResult c = parser.parse(reader);
+        ExpressionBuilderSampleParser.AssignmentStatement assignmentStatement = (ExpressionBuilderSampleParser.AssignmentStatement) c;
+        assertEquals("a", assignmentStatement.getTarget());
+        assertEquals("b c +", assignmentStatement.getNode().toString());
+    }
 }
@@ -2,6 +2,7 @@ package net.remgant.tools.parser.test;
 
 import com.google.common.collect.ImmutableSet;
 import net.remgant.tools.parser.ExpressionBuilder;
+import net.remgant.tools.parser.OperatorTable;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -67,4 +68,35 @@ public class ExpressionBuilderTest {
         System.out.println(node);
         assertEquals("a b * c *", node.toString());
     }
+
+    @Test
+    public void testOperatorTable() {
+        ExpressionBuilder<String> expressionBuilder = new ExpressionBuilder<>(OperatorTable.<String>builder()
+                .level(OperatorTable.Associativity.LEFT, "+")
+                .level(OperatorTable.Associativity.RIGHT, "^")
+                .prefixLevel("-")
+                .build(), "(", ")");
+        for (String s : new String[]{"-", "a", "^", "b", "^", "(", "c", "+", "d", ")"})
+            expressionBuilder.add(s);
+        assertEquals("a - b c d + ^ ^", expressionBuilder.evaluate().toString());
+    }
+
+    @Test
+    public void testDeeplyNested() {
+        ExpressionBuilder<String> expressionBuilder = new ExpressionBuilder<>(ImmutableSet.of(), ImmutableSet.of(), ImmutableSet.of("+", "-"), ImmutableSet.of("*", "/"), "(", ")");
+        for (int i = 0; i < 100000; i++) {
+            expressionBuilder.add("a");
+            expressionBuilder.add("-");
+            expressionBuilder.add("(");
+        }
+        expressionBuilder.add("b");
+        for (int i = 0; i < 100000; i++)
+            expressionBuilder.add(")");
+        ExpressionBuilder.Node<String> node = expressionBuilder.evaluate();
+        int depth = 0;
+        for (; node.getRight() != null; node = node.getRight())
+            depth++;
+        assertEquals(100000, depth);
+        assertEquals("b", node.getValue());
+    }
 }
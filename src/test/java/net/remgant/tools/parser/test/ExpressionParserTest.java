@@ -17,14 +17,21 @@
 package net.remgant.tools.parser.test;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import net.remgant.tools.parser.ExpressionParser;
+import net.remgant.tools.parser.ExpressionParserMetrics;
 import net.remgant.tools.parser.Lexer;
+import net.remgant.tools.parser.OperatorTable;
 import net.remgant.tools.parser.ParserResult;
 import net.remgant.tools.parser.Token;
+import net.remgant.tools.parser.TokenSource;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.StringReader;
 import java.util.ListIterator;
+import java.util.Set;
 import java.util.function.Predicate;
 
 import static junit.framework.TestCase.assertTrue;
@@ -127,4 +134,109 @@ public class ExpressionParserTest {
         assertEquals("", result.toString());
         assertTrue(tokenIterator.hasNext());
     }
+
+    @Test
+    public void testMetrics() throws Exception {
+        expressionParser.setMetrics(new ExpressionParserMetrics());
+        Lexer lexer = new Lexer(ImmutableSet.of(';', ')'));
+        expressionParser.parse(lexer.tokenize("a + b;"), ImmutableSet.of(TestToken.SEMI_COLON));
+        expressionParser.parse(lexer.tokenize("a * b + c"), ImmutableSet.of(TestToken.SEMI_COLON));
+        ExpressionParserMetrics.Snapshot snapshot = expressionParser.getMetrics().snapshot();
+        assertEquals(2, snapshot.getParses());
+        assertEquals(0, snapshot.getFailures());
+        assertEquals(3 + 5, snapshot.getTokensPerParse().getSum());
+    }
+
+    @Test
+    public void testTokenBuffer() throws Exception {
+        Lexer lexer = new Lexer(ImmutableSet.of(';', '(', ')'));
+        ParserResult result = expressionParser.parse(lexer.tokenBuffer("(a + b) * c;"), ImmutableSet.of(TestToken.SEMI_COLON));
+        assertEquals("a b + c *", result.toString());
+    }
+
+    @Test
+    public void testOperatorTable() throws Exception {
+        ExpressionParser parser = new ExpressionParser(OperatorTable.<String>builder()
+                .level(OperatorTable.Associativity.LEFT, "or")
+                .level(OperatorTable.Associativity.LEFT, "and")
+                .prefixLevel("not")
+                .level(OperatorTable.Associativity.LEFT, "=", "<")
+                .level(OperatorTable.Associativity.LEFT, "|")
+                .level(OperatorTable.Associativity.LEFT, "+", "-")
+                .level(OperatorTable.Associativity.LEFT, "*")
+                .level(OperatorTable.Associativity.RIGHT, "^")
+                .prefixLevel("-")
+                .build());
+        Lexer lexer = new Lexer(ImmutableSet.of(';', '(', ')'));
+        assertEquals("a b c ^ ^", parser.parse(lexer.tokenize("a ^ b ^ c;"), ImmutableSet.of(TestToken.SEMI_COLON)).toString());
+        assertEquals("a b - c -", parser.parse(lexer.tokenize("a - b - c;"), ImmutableSet.of(TestToken.SEMI_COLON)).toString());
+        assertEquals("a - b *", parser.parse(lexer.tokenize("- a * b;"), ImmutableSet.of(TestToken.SEMI_COLON)).toString());
+        assertEquals("a b - -", parser.parse(lexer.tokenize("a - - b;"), ImmutableSet.of(TestToken.SEMI_COLON)).toString());
+        assertEquals("a b c | = not d and", parser.parse(lexer.tokenize("not a = b | c and d;"),
+                ImmutableSet.of(TestToken.SEMI_COLON)).toString());
+        assertEquals("a b + c ^ not", parser.parse(lexer.tokenize("not (a + b) ^ c;"), ImmutableSet.of(TestToken.SEMI_COLON)).toString());
+    }
+
+    @Test
+    public void testDeeplyNested() throws Exception {
+        Lexer lexer = new Lexer(ImmutableSet.of(';', '(', ')'));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++)
+            sb.append('(');
+        sb.append("a + b");
+        for (int i = 0; i < 100000; i++)
+            sb.append(')');
+        assertEquals("a b +", expressionParser.parse(lexer.tokenize(sb.append(';').toString()),
+                ImmutableSet.of(TestToken.SEMI_COLON)).toString());
+
+        sb.setLength(0);
+        sb.append('a');
+        for (int i = 0; i < 100000; i++)
+            sb.append(" or a");
+        String result = expressionParser.parse(lexer.tokenize(sb.toString()), ImmutableSet.of(TestToken.SEMI_COLON)).toString();
+        assertEquals(100001 * 2 + 100000 * 3 - 1, result.length());
+        assertTrue(result.endsWith("a or a or"));
+    }
+
+    @Test
+    public void testEndTokenSets() throws Exception {
+        Lexer lexer = new Lexer(ImmutableSet.of(';', '(', ')'));
+        Set<Predicate<Token>> endTokens = ImmutableSet.of(TestToken.SEMI_COLON,
+                Token.TokenSet.of(new Token.Keyword("THEN"), new Token.Keyword("ELSE")));
+        ListIterator<Token> tokenIterator = lexer.tokenize("a + b Then c");
+        assertEquals("a b +", expressionParser.parse(tokenIterator, endTokens).toString());
+        assertEquals("Then", tokenIterator.next().getValue());
+        tokenIterator = lexer.tokenize("a * (b + c);");
+        assertEquals("a b c + *", expressionParser.parse(tokenIterator, endTokens).toString());
+        assertEquals(";", tokenIterator.next().getValue());
+    }
+
+    @Test
+    public void testForwardOnlySource() throws Exception {
+        Lexer lexer = new Lexer(ImmutableSet.of(';', '(', ')'));
+        expressionParser.setMetrics(new ExpressionParserMetrics());
+        PeekingIterator<Token> source = Iterators.peekingIterator(
+                lexer.tokenSource(new StringReader("a * (b + c) > d; e")).stream().iterator());
+        ParserResult result = expressionParser.parse(source, ImmutableSet.of(TestToken.SEMI_COLON));
+        assertEquals("a b c + * d >", result.toString());
+        assertEquals(";", source.peek().getValue());
+        assertEquals(9, expressionParser.getMetrics().snapshot().getTokensPerParse().getSum());
+        source.next();
+        assertEquals("e", expressionParser.parse(source, ImmutableSet.of(TestToken.SEMI_COLON)).toString());
+        assertFalse(source.hasNext());
+    }
+
+    @Test
+    public void testTokenSource() throws Exception {
+        Lexer lexer = new Lexer(ImmutableSet.of(';', '(', ')'));
+        TokenSource source = lexer.tokenSource("a * (b + c) > d; e");
+        ParserResult result = expressionParser.parse(source, ImmutableSet.of(TestToken.SEMI_COLON));
+        assertEquals("a b c + * d >", result.toString());
+        assertEquals(";", source.peek().getValue());
+        // read through peek, so d is still the token last returned rather than one pushed back
+        assertEquals(14, source.getOffset());
+        source.next();
+        assertEquals("e", expressionParser.parse(source, ImmutableSet.of(TestToken.SEMI_COLON)).toString());
+        assertFalse(source.hasNext());
+    }
 }
@@ -1,13 +1,30 @@
 package net.remgant.tools.parser.test;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import net.remgant.tools.parser.Lexer;
+import net.remgant.tools.parser.LexerMetrics;
 import net.remgant.tools.parser.Token;
+import net.remgant.tools.parser.TokenBuffer;
+import net.remgant.tools.parser.TokenSource;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.ListIterator;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class LexerTest {
     @Test
@@ -18,4 +35,262 @@ public class LexerTest {
         assertEquals(new Token.Identifier("="), tokenIterator.next());
         assertEquals(new Token.NumericString("1"), tokenIterator.next());
     }
+
+    @Test
+    public void testMetrics() {
+        Lexer lexer = new Lexer();
+        lexer.setMetrics(new LexerMetrics());
+        assertEquals(3, lexer.tokenSource("a = 1").stream().count());
+        lexer.tokenSource("b").next();
+        LexerMetrics.Snapshot snapshot = lexer.getMetrics().snapshot();
+        assertEquals(4, snapshot.getTokens());
+        assertEquals(4, snapshot.getTokenLatency().getCount());
+        assertEquals(1, snapshot.getSources());
+    }
+
+    @Test
+    public void testTokenOffsets() {
+        String source = "ab, 'c d'  12.5(x\ty)";
+        for (TokenSource tokenSource : ImmutableList.of(new Lexer().tokenSource(source),
+                new Lexer().tokenSource(new StringReader(source)))) {
+            StringBuilder offsets = new StringBuilder();
+            while (tokenSource.hasNext()) {
+                Token token = tokenSource.next();
+                assertEquals(token.getValue(), source.substring(tokenSource.getOffset(),
+                        tokenSource.getOffset() + token.getValue().length()));
+                offsets.append(tokenSource.getOffset()).append(' ');
+            }
+            assertEquals("0 2 4 11 15 16 18 19 ", offsets.toString());
+        }
+    }
+
+    @Test
+    public void testTokenBuffer() {
+        Lexer lexer = new Lexer(ImmutableSet.of('*', ','), Token.createTokenFinderFromClass(SampleSQLParser.SQLToken.class));
+        String source = "select a, 'b c' ,12.5 from t\u00e9 where x = \"y\"";
+        TokenBuffer buffer = lexer.tokenBuffer(source);
+        TokenSource tokenSource = lexer.tokenSource(source);
+        int i = 0;
+        while (tokenSource.hasNext()) {
+            Token token = tokenSource.next();
+            assertEquals(token, buffer.getToken(i));
+            assertEquals(token.getValue(), buffer.getToken(i).getValue());
+            assertEquals(token.getKind(), buffer.getKind(i));
+            assertEquals(tokenSource.getOffset(), buffer.getStart(i));
+            assertEquals(source.substring(buffer.getStart(i), buffer.getEnd(i)), buffer.getText(i).toString());
+            i++;
+        }
+        assertEquals(i, buffer.size());
+        assertSame(lexer.tokenSource("SELECT").next(), buffer.getToken(0));
+
+        ListIterator<Token> tokens = buffer.listIterator();
+        assertEquals("SELECT", tokens.next().getValue());
+        assertEquals("a", tokens.next().getValue());
+        assertEquals("a", tokens.previous().getValue());
+        assertEquals(1, tokens.nextIndex());
+    }
+
+    @Test
+    public void testTokenSourceMatchesTokenize() {
+        Lexer lexer = new Lexer(ImmutableSet.of(',', '(', ')', ';', '\u00a7'));
+        String[] sources = {
+                "select a, b from t where x = 'it\\'s' and y = 12.5;",
+                "f(x1,2.5)\u2003g \"q \\\" r\"\u00a7caf\u00e9 \u0663\u0664 x",
+                "12ab 3.4.5 ''  \"\" 'unterminated",
+        };
+        for (String source : sources) {
+            List<String> expected = lexer.tokenSource(new StringReader(source)).stream()
+                    .map(Token::getValue).collect(Collectors.toList());
+            List<String> actual = ImmutableList.copyOf(lexer.tokenize(source)).stream()
+                    .map(Token::getValue).collect(Collectors.toList());
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testTokenSourcePushback() {
+        Lexer lexer = new Lexer();
+        TokenSource tokenSource = lexer.tokenSource("a b c");
+        assertFalse(tokenSource.hasPrevious());
+        assertEquals("a", tokenSource.peek().getValue());
+        assertEquals("a", tokenSource.next().getValue());
+        assertEquals("b", tokenSource.next().getValue());
+        assertTrue(tokenSource.hasNext());
+        assertEquals("b", tokenSource.previous().getValue());
+        assertFalse(tokenSource.hasPrevious());
+        assertEquals("b", tokenSource.next().getValue());
+        assertEquals("c", tokenSource.next().getValue());
+        assertFalse(tokenSource.hasNext());
+        assertNull(tokenSource.peek());
+    }
+
+    @Test
+    public void testTokenSourceIsLazy() {
+        Lexer lexer = new Lexer();
+        Reader reader = new Reader() {
+            private final String text = "a b ";
+            private int pos;
+
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                if (pos >= text.length())
+                    throw new IOException("read past the first two tokens");
+                cbuf[off] = text.charAt(pos++);
+                return 1;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        TokenSource tokenSource = lexer.tokenSource(reader);
+        assertEquals("a", tokenSource.next().getValue());
+        assertEquals("b", tokenSource.next().getValue());
+    }
+
+    @Test
+    public void testClassifiesGrammarTokens() {
+        Lexer lexer = new Lexer(ImmutableSet.of('*', ','), Token.createTokenFinderFromClass(SampleSQLParser.SQLToken.class));
+        List<String> actual = ImmutableList.copyOf(lexer.tokenize("select Name,* fRoM emp where x = 'a b' and y = 1.5 or z = 12. fromage caf\u00e9"))
+                .stream()
+                .map(t -> t.getClass().getSimpleName() + ":" + t.getValue())
+                .collect(Collectors.toList());
+        assertEquals(ImmutableList.of("Keyword:SELECT", "Identifier:Name", "Char:,", "Char:*", "Keyword:FROM",
+                "Identifier:emp", "Keyword:WHERE", "Identifier:x", "Char:=", "CharString:'a b'", "Identifier:and",
+                "Identifier:y", "Char:=", "NumericString:1.5", "Identifier:or", "Identifier:z", "Char:=",
+                "Identifier:12.", "Identifier:fromage", "Identifier:caf\u00e9"), actual);
+    }
+
+    @Test
+    public void testCanonicalTokens() {
+        Lexer lexer = new Lexer(ImmutableSet.of('*', ','), Token.createTokenFinderFromClass(SampleSQLParser.SQLToken.class));
+        ListIterator<Token> tokenIterator = lexer.tokenize("select a,b Select a , * from");
+        Token select = tokenIterator.next();
+        Token a = tokenIterator.next();
+        Token comma = tokenIterator.next();
+        tokenIterator.next();
+        assertSame(select, tokenIterator.next());
+        assertNotSame(a, tokenIterator.next());
+        assertSame(comma, tokenIterator.next());
+        assertEquals(SampleSQLParser.SQLToken.STAR, tokenIterator.next());
+        assertEquals(SampleSQLParser.SQLToken.FROM, tokenIterator.next());
+    }
+
+    @Test
+    public void testTokensAreSpansOfTheSource() {
+        Lexer lexer = new Lexer(ImmutableSet.of('*', ','), Token.createTokenFinderFromClass(SampleSQLParser.SQLToken.class));
+        StringBuilder source = new StringBuilder("select name, 'a b' from emp");
+        TokenSource tokenSource = lexer.tokenSource(source);
+        Token select = tokenSource.next();
+        Token name = tokenSource.next();
+        tokenSource.next();
+        Token string = tokenSource.next();
+        assertSame(select.getValue(), select.getText());
+        assertFalse(name.getText() instanceof String);
+        assertEquals("name", name.getText().toString());
+        assertEquals("'a b'", string.getText().toString());
+        assertTrue(Token.Identifier.INSTANCE.test(name));
+        assertEquals("name", name.getValue());
+        assertSame(name.getValue(), name.getValue());
+        assertSame(name.getValue(), name.getText());
+        assertEquals(new Token.Identifier("name"), name);
+    }
+
+    @Test
+    public void testTokenClassPredicates() {
+        assertTrue(Token.Identifier.INSTANCE.test(new Token.Identifier("a_1")));
+        assertFalse(Token.Identifier.INSTANCE.test(new Token.Identifier("_a")));
+        assertFalse(Token.Identifier.INSTANCE.test(new Token.Identifier("caf\u00e9")));
+        assertTrue(Token.NumericString.INSTANCE.test(new Token.NumericString("12.5")));
+        assertFalse(Token.NumericString.INSTANCE.test(new Token.NumericString("12.")));
+        assertFalse(Token.NumericString.ANY_INTEGER.test(new Token.NumericString("12.5")));
+        assertTrue(Token.CharString.INSTANCE.test(new Token.CharString("'it\\'s'")));
+        assertTrue(Token.CharString.INSTANCE.test(new Token.CharString("'''")));
+        assertFalse(Token.CharString.INSTANCE.test(new Token.CharString("'it's'")));
+        assertFalse(Token.CharString.INSTANCE.test(new Token.CharString("\"a\nb\"")));
+        StringBuilder sb = new StringBuilder("'");
+        for (int i = 0; i < 100000; i++)
+            sb.append("\\''");
+        assertFalse(Token.CharString.INSTANCE.test(new Token.CharString(sb.toString())));
+    }
+
+    public static class AccentedToken extends Token {
+        final public static Token ETE = new Keyword("\u00c9T\u00c9");
+        final public static Token SELECT = new Keyword("SELECT");
+    }
+
+    @Test
+    public void testNonAsciiKeywordsIgnoreCase() {
+        Lexer lexer = new Lexer(Token.createTokenFinderFromClass(AccentedToken.class));
+        Token ete = lexer.tokenize("\u00c9T\u00c9").next();
+        assertTrue(ete instanceof Token.Keyword);
+        assertSame(ete, lexer.tokenize("\u00e9t\u00e9").next());
+        assertSame(ete, lexer.tokenSource("\u00e9T\u00e9").next());
+        assertSame(ete, lexer.tokenSource(new StringReader("\u00c9t\u00e9")).next());
+        assertTrue(lexer.tokenize("\u00e9t\u00e9s").next() instanceof Token.Identifier);
+        assertSame(lexer.tokenize("SELECT").next(), lexer.tokenize("sElEcT").next());
+    }
+
+    @Test
+    public void testOperatorsByLongestMatch() {
+        Lexer lexer = new Lexer(ImmutableSet.of('(', ')'), ImmutableSet.of("<", "<=", "<>", "!=", "||", "AND"),
+                Token.createTokenFinderFromClass(SampleSQLParser.SQLToken.class));
+        String source = "a<=b!c!=(c<d)||'x<y' <>12<3 band";
+        List<String> expected = ImmutableList.of("a", "<=", "b!c", "!=", "(", "c", "<", "d", ")", "||", "'x<y'",
+                "<>", "12", "<", "3", "band");
+        assertEquals(expected, ImmutableList.copyOf(lexer.tokenSource(source)).stream()
+                .map(Token::getValue).collect(Collectors.toList()));
+        assertEquals(expected, ImmutableList.copyOf(lexer.tokenSource(new StringReader(source))).stream()
+                .map(Token::getValue).collect(Collectors.toList()));
+
+        source = "x = \"s9\"-1";
+        assertEquals(ImmutableList.copyOf(lexer.tokenSource(new StringReader(source))).stream()
+                        .map(Token::getValue).collect(Collectors.toList()),
+                ImmutableList.copyOf(lexer.tokenSource(source)).stream()
+                        .map(Token::getValue).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testPredicateNamesFromManyThreads() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        List<Predicate<Token>> predicates = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 500; i++)
+                    predicates.add(Token.negate(Token.Regex.of("t" + thread + "_" + i)));
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(2000, predicates.size());
+        for (Predicate<Token> predicate : predicates)
+            assertTrue(Token.TokenSet.of(predicate).toString().matches("negated\\(Regex: t\\d_\\d+\\)"));
+    }
+
+    @Test
+    public void testTokenSets() {
+        Lexer lexer = new Lexer(ImmutableSet.of(','), Token.createTokenFinderFromClass(SampleSQLParser.SQLToken.class));
+        Token.TokenSet keywords = Token.TokenSet.of(SampleSQLParser.SQLToken.SELECT, new Token.Keyword("Name"));
+        Token.TokenSet mixed = Token.TokenSet.of(keywords, Token.NumericString.INSTANCE);
+        List<Token> tokens = ImmutableList.copyOf(lexer.tokenSource("select NAME, nam, 12, 'select'"));
+        assertEquals(ImmutableList.of(true, true, false, false, false, false, false, false),
+                tokens.stream().map(keywords::test).collect(Collectors.toList()));
+        assertEquals(ImmutableList.of(true, true, false, false, false, true, false, false),
+                tokens.stream().map(mixed::test).collect(Collectors.toList()));
+        assertFalse(mixed.test(new Token.Identifier("x")));
+        assertTrue(Token.TokenSet.of(Token.NumericString.INSTANCE, Token.MATCH_ANY).test(new Token.Identifier("x")));
+    }
+
+    @Test
+    public void testTokenSetsMatchLikeTheirPredicates() {
+        String[][] cases = {{"\u0130D", "iD"}, {"\u212AEY", "key"}, {"KEY", "\u212Aey"}, {"Name", "nAME"},
+                {"Name", "nam"}, {"STRASSE", "stra\u00DFe"}};
+        for (String[] c : cases) {
+            Token.Keyword keyword = new Token.Keyword(c[0]);
+            Token token = new Token.Identifier(c[1]);
+            assertEquals(c[0] + " " + c[1], keyword.getPredicate().test(token), Token.TokenSet.of(keyword).test(token));
+        }
+    }
 }
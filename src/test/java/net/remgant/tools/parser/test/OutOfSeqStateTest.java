@@ -1,13 +1,21 @@
 package net.remgant.tools.parser.test;
 
+import net.remgant.tools.parser.NoMatchForTokenException;
+import net.remgant.tools.parser.ParseOutcome;
 import net.remgant.tools.parser.Parser;
 import net.remgant.tools.parser.ParserException;
 import net.remgant.tools.parser.ParserResult;
+import net.remgant.tools.parser.Recognition;
 import net.remgant.tools.parser.Token;
 import org.junit.Test;
 
 import java.util.Collections;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
 public class OutOfSeqStateTest {
     @Test
     public void testSkipStates() throws ParserException {
@@ -51,4 +59,36 @@ public class OutOfSeqStateTest {
 
         parser.parse("a b c d");
     }
+
+    @Test
+    public void testTransitionPastLastState() {
+        Parser parser = new Parser() {
+            @Override
+            protected void init() {
+                addState(0, Token.MATCH_ANY, 5, null);
+                terminalStates = Collections.singleton(999);
+            }
+        };
+        assertEquals(Recognition.Outcome.REJECTED_AT_STATE, parser.recognize("x y").getOutcome());
+        ParseOutcome outcome = parser.tryParse("x y");
+        assertFalse(outcome.isSuccess());
+        assertEquals("y", outcome.getToken());
+        assertEquals(5, outcome.getState());
+        assertTrue(outcome.getFailure() instanceof NoMatchForTokenException);
+    }
+
+    @Test
+    public void testRejectedInNegativeState() {
+        Parser parser = new Parser() {
+            @Override
+            protected void init() {
+                addState(0, Token.MATCH_ANY, -1, null);
+                terminalStates = Collections.singleton(999);
+            }
+        };
+        Recognition recognition = parser.recognize("x y");
+        assertEquals(Recognition.Outcome.REJECTED, recognition.getOutcome());
+        assertEquals(-1, recognition.getState());
+        assertSame(recognition, parser.recognize("a b"));
+    }
 }
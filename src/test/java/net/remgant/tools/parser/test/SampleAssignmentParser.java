@@ -19,6 +19,8 @@ package net.remgant.tools.parser.test;
 import com.google.common.collect.ImmutableSet;
 import net.remgant.tools.parser.*;
 
+import java.util.Set;
+
 import static net.remgant.tools.parser.test.SampleAssignmentParser.SampleToken.EQUALS;
 import static net.remgant.tools.parser.test.SampleAssignmentParser.SampleToken.SEMI_COLON;
 
@@ -37,8 +39,10 @@ public class SampleAssignmentParser extends Parser {
         }
     }
 
+    private static final Set<String> RELATION_OPS = ImmutableSet.of("<", ">", "<=", ">=", "==", "!=");
+
     private final ExpressionParser expressionParser = new ExpressionParser(ImmutableSet.of("and", "or"),
-            ImmutableSet.of("<", ">", "<=", ">=", "==", "!="),
+            RELATION_OPS,
             ImmutableSet.of("+", "-"),
             ImmutableSet.of("*", "/", "%"));
 
@@ -46,11 +50,11 @@ public class SampleAssignmentParser extends Parser {
     protected void init() {
         addState(0, Token.Identifier.INSTANCE, 1, (s, c) -> new AssignmentStatement(s));
 
-        addState(1, EQUALS, 2, (s, c) -> {
+        addState(1, EQUALS, 2, (s, c, context) -> {
             AssignmentStatement as = (AssignmentStatement) c;
             ParserResult result = null;
             try {
-                result = expressionParser.parse(tokenIterator, ImmutableSet.of(SEMI_COLON), "");
+                result = expressionParser.parse(context.getTokens(), ImmutableSet.of(SEMI_COLON), "");
             } catch (Exception e) {
                 as.setError(e.getCause());
             }
@@ -63,7 +67,7 @@ public class SampleAssignmentParser extends Parser {
 
 
     public SampleAssignmentParser() {
-        super(ImmutableSet.of('+', '-', '=', ';', '(', ')'));
+        super(ImmutableSet.of('+', '-', '=', ';', '(', ')'), RELATION_OPS);
     }
 
     private static class AssignmentStatement extends ParserResult {
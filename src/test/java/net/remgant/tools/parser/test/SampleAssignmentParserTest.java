@@ -16,12 +16,21 @@
  */
 package net.remgant.tools.parser.test;
 
+import net.remgant.tools.parser.ContextualParserAction;
 import net.remgant.tools.parser.NoMatchForTokenException;
 import net.remgant.tools.parser.ParserException;
 import net.remgant.tools.parser.ParserResult;
+import net.remgant.tools.parser.SpanParserAction;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class SampleAssignmentParserTest {
 
@@ -58,9 +67,46 @@ public class SampleAssignmentParserTest {
         assertEquals("AssignmentStatement{target='a', expression=b c d + +}", c.toString());
     }
 
+    @Test
+    public void testUnspacedOperators() throws ParserException {
+        SampleAssignmentParser parser = new SampleAssignmentParser();
+        ParserResult c = parser.parse("a=b<=c+d;");
+        assertEquals("AssignmentStatement{target='a', expression=b c d + <=}", c.toString());
+        c = parser.parse("a = b != (c==d);");
+        assertEquals("AssignmentStatement{target='a', expression=b c d == !=}", c.toString());
+    }
+
     @Test(expected = NoMatchForTokenException.class)
     public void testSyntaxError() throws ParserException {
         SampleAssignmentParser parser = new SampleAssignmentParser();
         ParserResult c = parser.parse("a = b + + c;");
     }
+
+    @Test
+    public void testSharedBetweenThreads() throws Exception {
+        SampleAssignmentParser parser = new SampleAssignmentParser();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String target = "v" + Integer.toBinaryString(i).replace('0', 'a').replace('1', 'b');
+                futures.add(executor.submit(() -> parser.parse(target + " = b + (" + target + " + d);").toString()));
+                expected.add("AssignmentStatement{target='" + target + "', expression=b " + target + " d + +}");
+            }
+            for (int i = 0; i < futures.size(); i++)
+                assertEquals(expected.get(i), futures.get(i).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testActionsCalledOutsideAParse() {
+        ParserResult parserResult = new ParserResult();
+        ContextualParserAction contextual = (s, r, c) -> c.getTokens().hasNext() ? null : r;
+        assertSame(parserResult, contextual.doAction("a", parserResult));
+        SpanParserAction span = (s, r, c) -> c.getTokens().hasNext() ? null : r;
+        assertSame(parserResult, span.doAction("a", parserResult));
+    }
 }
@@ -18,6 +18,7 @@ package net.remgant.tools.parser.test;
 
 import com.google.common.collect.ImmutableSet;
 import net.remgant.tools.parser.Parser;
+import net.remgant.tools.parser.ParserAction;
 import net.remgant.tools.parser.ParserResult;
 import net.remgant.tools.parser.Token;
 
@@ -51,6 +52,8 @@ public class SampleSQLParser extends Parser {
         boolean projectAll;
         List<String> projectTerms = new ArrayList<>();
         String fromTable;
+        String whereColumn;
+        String whereValue;
 
         public void setProjectAll(boolean projectAll) {
             this.projectAll = projectAll;
@@ -64,6 +67,17 @@ public class SampleSQLParser extends Parser {
             this.fromTable = fromTable;
         }
 
+        @Override
+        public ParserResult cacheableCopy() {
+            SelectCommand copy = new SelectCommand();
+            copy.projectAll = projectAll;
+            copy.projectTerms = new ArrayList<>(projectTerms);
+            copy.fromTable = fromTable;
+            copy.whereColumn = whereColumn;
+            copy.whereValue = whereValue;
+            return copy;
+        }
+
         @Override
         public String toString() {
             return "SelectCommand{" +
@@ -132,11 +146,17 @@ public class SampleSQLParser extends Parser {
         addState(8, WHERE, 9, null);
 
         // State 9
-        addState(9, Identifier.INSTANCE_, 10, null);
+        addState(9, Identifier.INSTANCE_, 10, (s, c) -> {
+            ((SelectCommand) c).whereColumn = s;
+            return c;
+        });
 
         addState(10, EQ, 11, null);
 
-        addState(11, TokenSet.of(CharString.INSTANCE_, NumericString.INSTANCE_), 12, null);
+        addState(11, TokenSet.of(CharString.INSTANCE_, NumericString.INSTANCE_), 12, ParserAction.binding((s, c) -> {
+            ((SelectCommand) c).whereValue = s;
+            return c;
+        }));
     }
 
     public static void main(String[] args) {
@@ -16,11 +16,32 @@
  */
 package net.remgant.tools.parser.test;
 
+import net.remgant.tools.parser.ContextualParserAction;
+import net.remgant.tools.parser.Lexer;
+import net.remgant.tools.parser.NoMatchForTokenException;
+import net.remgant.tools.parser.ParseResultCache;
+import net.remgant.tools.parser.Recognition;
+import net.remgant.tools.parser.TemplateCache;
+import net.remgant.tools.parser.ParseListener;
+import net.remgant.tools.parser.ParseOutcome;
+import net.remgant.tools.parser.ParserAction;
+import net.remgant.tools.parser.ParserMetrics;
 import net.remgant.tools.parser.ParserException;
 import net.remgant.tools.parser.ParserResult;
+import net.remgant.tools.parser.Token;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class SampleSQLParserTest {
     @Test
@@ -38,4 +59,196 @@ public class SampleSQLParserTest {
         System.out.println(parserResult);
         assertEquals("SelectCommand{projectAll=false, projectTerms=[id, name], fromTable='employee'}", parserResult.toString());
     }
+
+    @Test
+    public void testKeywordsIgnoreCase() throws ParserException {
+        SampleSQLParser parser = new SampleSQLParser();
+        ParserResult parserResult = parser.parse("SeLeCt id, FROMAGE From employee where name = 'x'");
+        assertEquals("SelectCommand{projectAll=false, projectTerms=[id, FROMAGE], fromTable='employee'}", parserResult.toString());
+    }
+
+    @Test(expected = NoMatchForTokenException.class)
+    public void testMissingProjectTerm() throws ParserException {
+        SampleSQLParser parser = new SampleSQLParser();
+        parser.parse("select , name from employee");
+    }
+
+    @Test
+    public void testSharedGrammar() throws ParserException {
+        new SharedSampleSQLParser();
+        int initCount = SharedSampleSQLParser.initCount.get();
+        SampleSQLParser parser = new SharedSampleSQLParser();
+        assertEquals(initCount, SharedSampleSQLParser.initCount.get());
+        ParserResult parserResult = parser.parse("select id,name from employee");
+        assertEquals("SelectCommand{projectAll=false, projectTerms=[id, name], fromTable='employee'}", parserResult.toString());
+        ByteArrayOutputStream shared = new ByteArrayOutputStream();
+        parser.printStateDiagram(new PrintStream(shared));
+        ByteArrayOutputStream unshared = new ByteArrayOutputStream();
+        new SampleSQLParser().printStateDiagram(new PrintStream(unshared));
+        assertTrue(unshared.size() > 0);
+        assertEquals(unshared.toString(), shared.toString());
+    }
+
+    @Test
+    public void testParseListener() throws ParserException {
+        List<String> events = new ArrayList<>();
+        SampleSQLParser parser = new SampleSQLParser();
+        parser.setParseListener(new ParseListener() {
+            @Override
+            public void transition(int state, int index, int nextState, Token token) {
+                events.add(state + " " + token + " " + nextState);
+            }
+
+            @Override
+            public void actionInvoked(int state, Token token, ParserAction action) {
+                events.add("action " + token);
+            }
+
+            @Override
+            public void noMatch(int state, Token token) {
+                events.add("no match " + token);
+            }
+        });
+        parser.parse("select * from employee");
+        assertEquals("[0 SELECT 1, action SELECT, 1 * 2, action *, 2 FROM 7, 7 employee 8, action employee]",
+                events.toString());
+
+        events.clear();
+        try {
+            parser.parse("select , name");
+        } catch (NoMatchForTokenException e) {
+            events.add(e.getMessage());
+        }
+        assertEquals("[0 SELECT 1, action SELECT, no match ,, No match for token=, in state=1]", events.toString());
+    }
+
+    @Test
+    public void testMetrics() throws ParserException {
+        SampleSQLParser parser = new SampleSQLParser();
+        parser.setMetrics(new ParserMetrics());
+        parser.parse("select * from employee");
+        parser.parse("select id,name from employee");
+        try {
+            parser.parse("select , name");
+        } catch (NoMatchForTokenException ignored) {
+        }
+        ParserMetrics.Snapshot snapshot = parser.getMetrics().snapshot();
+        assertEquals(3, snapshot.getParses());
+        assertEquals(3L, (long) snapshot.getStateHits().get(0));
+        assertEquals(1, snapshot.getTransitionHits(1, 0));
+        assertEquals(2, snapshot.getTransitionHits(1, 1));
+        assertEquals(Arrays.asList(1L, 0L, 1L), snapshot.getTransitionHits().get(3));
+        assertEquals(1L, (long) snapshot.getNoMatch().get(1));
+        assertEquals(4 + 6 + 2, snapshot.getTokensPerParse().getSum());
+        assertEquals(3, snapshot.getParseLatency().getCount());
+        assertEquals(3, snapshot.getLexLatency().getCount());
+    }
+
+    @Test
+    public void testResultCache() throws ParserException {
+        SampleSQLParser parser = new SampleSQLParser();
+        parser.setResultCache(new ParseResultCache(2));
+        SampleSQLParser.SelectCommand first = (SampleSQLParser.SelectCommand) parser.parse("select id,name from employee");
+        first.addProjectTerm("changed");
+        SampleSQLParser.SelectCommand second = (SampleSQLParser.SelectCommand) parser.parse("select id,name from employee");
+        assertNotSame(first, second);
+        assertEquals("SelectCommand{projectAll=false, projectTerms=[id, name], fromTable='employee'}", second.toString());
+        assertEquals(1, parser.getResultCache().stats().hitCount());
+        assertEquals(1, parser.getResultCache().stats().missCount());
+
+        parser.parse("select * from a");
+        parser.parse("select * from b");
+        assertEquals(2, parser.getResultCache().size());
+    }
+
+    @Test
+    public void testTemplateCache() throws ParserException {
+        SampleSQLParser parser = new SampleSQLParser();
+        parser.setTemplateCache(new TemplateCache(10));
+        SampleSQLParser.SelectCommand command = (SampleSQLParser.SelectCommand) parser.parse("select * from t where id = 1");
+        assertEquals("1", command.whereValue);
+        command = (SampleSQLParser.SelectCommand) parser.parse("select * from t where id = 42");
+        assertEquals("42", command.whereValue);
+        assertEquals("id", command.whereColumn);
+        assertEquals("SelectCommand{projectAll=true, projectTerms=[], fromTable='t'}", command.toString());
+        assertEquals(1, parser.getTemplateCache().stats().hitCount());
+        command = (SampleSQLParser.SelectCommand) parser.parse("SELECT * FROM t WHERE id = 7");
+        assertEquals("7", command.whereValue);
+        assertEquals(2, parser.getTemplateCache().stats().hitCount());
+
+        command = (SampleSQLParser.SelectCommand) parser.parse("select * from t where id = 'a'");
+        assertEquals("'a'", command.whereValue);
+        command = (SampleSQLParser.SelectCommand) parser.parse("select * from t where id = 'b'");
+        assertEquals("'b'", command.whereValue);
+        command = (SampleSQLParser.SelectCommand) parser.parse("select * from u where name = 'c'");
+        assertEquals("'c'", command.whereValue);
+        assertEquals("u", command.fromTable);
+        assertEquals(3, parser.getTemplateCache().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testContextualActionCannotBind() {
+        ParserAction.binding((ContextualParserAction) (s, r, c) -> r);
+    }
+
+    @Test
+    public void testRecognize() {
+        SampleSQLParser parser = new SampleSQLParser() {
+            @Override
+            protected ParserResult resultInitializer() {
+                throw new AssertionError("recognize created a result");
+            }
+        };
+        Recognition recognition = parser.recognize("select id, name from employee where id = 1");
+        assertEquals(Recognition.Outcome.ACCEPTED, recognition.getOutcome());
+        assertEquals(12, recognition.getState());
+
+        recognition = parser.recognize("select , name from employee");
+        assertEquals(Recognition.Outcome.REJECTED_AT_STATE, recognition.getOutcome());
+        assertEquals(1, recognition.getState());
+
+        recognition = parser.recognize("select * from employee where id = 1 2");
+        assertEquals(Recognition.Outcome.REJECTED_AT_STATE, recognition.getOutcome());
+        assertEquals(12, recognition.getState());
+    }
+
+    @Test
+    public void testTryParse() {
+        SampleSQLParser parser = new SampleSQLParser();
+        ParseOutcome outcome = parser.tryParse("select id from employee");
+        assertTrue(outcome.isSuccess());
+        assertEquals("SelectCommand{projectAll=false, projectTerms=[id], fromTable='employee'}", outcome.getResult().toString());
+
+        outcome = parser.tryParse("select ,  name from employee");
+        assertFalse(outcome.isSuccess());
+        assertEquals(",", outcome.getToken());
+        assertEquals(1, outcome.getState());
+        assertEquals(7, outcome.getOffset());
+        assertTrue(outcome.getFailure() instanceof NoMatchForTokenException);
+        assertEquals(0, outcome.getFailure().getStackTrace().length);
+    }
+
+    @Test
+    public void testStacklessExceptions() throws ParserException {
+        SampleSQLParser parser = new SampleSQLParser();
+        parser.setStacklessExceptions(true);
+        try {
+            parser.parse("select * * from employee");
+            fail();
+        } catch (NoMatchForTokenException e) {
+            assertEquals("No match for token=* in state=2", e.getMessage());
+            assertEquals(9, e.getOffset());
+            assertEquals(0, e.getStackTrace().length);
+        }
+    }
+
+    @Test
+    public void testParseTokenBuffer() throws ParserException {
+        SampleSQLParser parser = new SampleSQLParser();
+        ParserResult parserResult = parser.parse(parser.getLexer().tokenBuffer("select id,name from employee"));
+        assertEquals("SelectCommand{projectAll=false, projectTerms=[id, name], fromTable='employee'}", parserResult.toString());
+
+        parserResult = parser.parse(new Lexer().tokenBuffer("select id from employee"));
+        assertEquals("SelectCommand{projectAll=false, projectTerms=[id], fromTable='employee'}", parserResult.toString());
+    }
 }